@@ -54,27 +54,28 @@ def main():
         'Literal'  : 'Object value',
         'Grouping' : 'Expr expression',
         'Unary'    : 'Token operator, Expr expression',
-        'Variable' : 'Token name',
-        'Assign'   : 'Token name, Expr value',
+        'Variable' : 'Token name, Binding binding',
+        'Assign'   : 'Token name, Expr value, Binding binding',
         'Logical'  : 'Expr left, Token operator, Expr right',
-        'Call'     : 'Expr callee, Token rightParen, List<Expr> arguments',
-        'AnonymousFun' : 'List<Token> parameters, List<Stmt> body',
-        'Get'  : 'Expr expression, Token property',
-        'Set'  : 'Expr expression, Token property, Expr value',
-        'ThisExpr'  : 'Token keyword',
-        'SuperExpr' : 'Token keyword, Token identifier',
+        'Call'     : 'Expr callee, Token rightParen, List<Expr> arguments, InlineCache cache, CallPosition position',
+        'AnonymousFun' : 'List<Token> parameters, List<Stmt> body, Scope scope',
+        'Get'  : 'Expr expression, Token property, PropertyCache cache',
+        'Set'  : 'Expr expression, Token property, Expr value, PropertyCache cache',
+        'ThisExpr'  : 'Token keyword, Binding binding',
+        'SuperExpr' : 'Token keyword, Token identifier, Binding binding, Binding receiver',
+        'Inline'    : 'Call call, Expr body, Scope code',
     })
     
     define_ast('Stmt', {
         'Expression' : 'Expr expression',
         'Print'      : 'Expr expression',
-        'Var'        : 'Token name, Expr initializer',
-        'Block'      : 'List<Stmt> body',
-        'IfStmt'     : 'Expr condition, Stmt body, Stmt elseStmt',
-        'WhileStmt'  : 'Expr condition, Stmt body',
-        'FunctionDecl' : 'Token name, List<Token> parameters, List<Stmt> body',
+        'Var'        : 'Token name, Expr initializer, Binding binding',
+        'Block'      : 'List<Stmt> body, Scope scope',
+        'IfStmt'     : 'Token keyword, Expr condition, Stmt body, Stmt elseStmt',
+        'WhileStmt'  : 'Token keyword, Expr condition, Stmt body',
+        'FunctionDecl' : 'Token name, List<Token> parameters, List<Stmt> body, Binding binding, Scope scope',
         'ReturnStmt'   : 'Token keyword, Expr value',
-        'ClassDecl'    : 'Token name, Token superClass, List<FunctionDecl> methodsDecls',
+        'ClassDecl'    : 'Token name, Expr.Variable superClass, List<FunctionDecl> methodsDecls, Binding binding',
     })
 
 
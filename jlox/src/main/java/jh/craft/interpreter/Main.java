@@ -3,25 +3,89 @@
  */
 package jh.craft.interpreter;
 
+import jh.craft.interpreter.core.Interpreter;
 import jh.craft.interpreter.core.Lox;
+import jh.craft.interpreter.core.LoxEngine;
+import jh.craft.interpreter.exec.ClosureEngine;
+import jh.craft.interpreter.scanner.Source;
 import jh.craft.interpreter.types.LoxError;
+import jh.craft.interpreter.types.LoxErrorReporter;
+import jh.craft.interpreter.utils.OutputBuffer;
+import jh.craft.interpreter.vm.VM;
 
 import java.io.*;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class Main {
+    // how deep the calls of the vm engine can go
+    private static int maxDepth = VM.DEFAULT_MAX_DEPTH;
+    // where every engine prints, the REPL replaces it with an interactive one
+    private static OutputBuffer out = new OutputBuffer( System.out, false );
+
+    private static final Map<String, Function<LoxErrorReporter, LoxEngine>> ENGINES = Map.of(
+            "tree", reporter -> new Interpreter(reporter, false, out),
+            "jit", reporter -> new Interpreter(reporter, true, out),
+            "closure", reporter -> new ClosureEngine(reporter, out),
+            "vm", reporter -> new VM(reporter, maxDepth, out)
+    );
+
+    private static Function<LoxErrorReporter, LoxEngine> engine = ENGINES.get("tree");
+
+    // where the optimizer describes its changes, null turns it off
+    private static Consumer<String> optimizerNotes = note -> {};
+
     public static void main(String[] args) {
 
+        while( args.length >= 2 && args[0].startsWith("--") ){
+            switch (args[0]){
+                case "--engine" -> {
+                    engine = ENGINES.get( args[1] );
+                    if( engine == null ) usage();
+                }
+                case "--max-depth" -> maxDepth = positive( args[1] );
+                case "--optimizer" -> optimizerNotes = switch (args[1]){
+                    case "on" -> note -> {};
+                    case "off" -> null;
+                    case "report" -> note -> System.err.printf("optimizer: %s\n", note);
+                    default -> {
+                        usage();
+                        yield null;
+                    }
+                };
+                default -> usage();
+            }
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+
         if( args.length == 0 )
             runPrompt();
         else if( args.length == 1 )
             runFile( args[0] );
-        else  {
-            System.err.println("usage: jlox <filename>");
-            System.exit(1);
-        }
+        else
+            usage();
+
+    }
+
+    private static void usage(){
+        System.err.printf(
+                "usage: jlox [--engine %s] [--max-depth <frames>] [--optimizer on|off|report] <filename>\n",
+                String.join("|", ENGINES.keySet())
+        );
+        System.exit(1);
+    }
+
+    private static int positive(String value){
+        try{
+            var number = Integer.parseInt( value );
+            if( number > 0 ) return number;
+        }catch (NumberFormatException ignored){}
 
+        usage();
+        return 0;
     }
 
     private static void runPrompt(){
@@ -33,7 +97,8 @@ public class Main {
             String line = null;
         };
 
-        var lox = new Lox( error -> printError(error, ref.line) );
+        out = new OutputBuffer( System.out, true );
+        var lox = new Lox( error -> printError(error, Source.of( ref.line )), engine, optimizerNotes );
         try {
             for(;;){
                 System.out.print("> ");
@@ -48,11 +113,12 @@ public class Main {
 
     private static void runFile(String filename){
         try {
-            final var source = Files.readString(Path.of(filename));
+            // the file is scanned from its mapped bytes
+            final var source = Source.map(Path.of(filename));
             // runs the code c:
             new Lox( error -> {
                 printError( error, source );
-            }).run( source );
+            }, engine, optimizerNotes).run( source );
         } catch (IOException e) {
             System.out.printf(
                     "Error reading '%s': %s\n", filename, e.getMessage()
@@ -62,7 +128,9 @@ public class Main {
 
     }
 
-    private static void printError(LoxError error, String source){
+    private static void printError(LoxError error, Source source){
+        // what was printed before the error comes first
+        out.flush();
         int lineStart = error.position;
         int lineEnd   = lineStart + 1;
 
@@ -78,15 +146,19 @@ public class Main {
         //     number and the line from the source code.
         // )
         String indication = String.format("\t %d | ", error.line);
-        String errLine   =  indication + source.substring(lineStart + 1, lineEnd);
+        String errLine   =  indication + source.text(lineStart + 1, lineEnd);
 
         // Calculating the number of spaces needed for ^ to be right below
-        // the character where the error happened
-        int errOffset = error.position - lineStart + indication.length() - 2;
+        // the character where the error happened (positions of a mapped
+        // source count bytes, so the column is counted on the decoded text)
+        int column    = source.text(lineStart + 1, error.position + 1).length();
+        int errOffset = column + indication.length() - 2;
         String spaces = String.format("\t%" + errOffset + "s", "");
 
         // Building the final String ...
         System.out.printf("Error: %s\n%s\n%s^-- Here.\n", error.msg, errLine, spaces);
+        for( var call : error.trace )
+            System.out.printf("\t%s\n", call);
     }
 
 }
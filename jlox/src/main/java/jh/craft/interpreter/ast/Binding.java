@@ -0,0 +1,44 @@
+package jh.craft.interpreter.ast;
+
+// Filled by the static analyst: where the declaration of an identifier
+// lives, that is, how many scopes we have to walk up and the slot inside
+// that scope. For globals the slot is the index of the name in the
+// interpreter's global table, which is only known the first time the
+// interpreter looks it up.
+//
+// The tree interpreter addresses locals differently: the ones declared
+// by the running function live in its frame stack, at frameSlot from the
+// start of the function's frame, the ones of enclosing functions were
+// copied into the closure, at index capture of its captures. When cell is
+// set the variable is shared with a closure that may assign it, so both
+// places hold the Cell with its value instead of the value itself.
+public final class Binding {
+    public static final int UNRESOLVED = -1;
+    public static final int NOT_IN_FRAME = -1;
+    private static final int GLOBAL = -1;
+
+    public int depth;
+    public int slot;
+    public int frameSlot;
+    public int capture;
+    public boolean cell;
+
+    public Binding(){
+        this.depth = GLOBAL;
+        this.slot = UNRESOLVED;
+        this.frameSlot = NOT_IN_FRAME;
+    }
+
+    public void resolve(int depth, int slot){
+        this.depth = depth;
+        this.slot = slot;
+    }
+
+    public void resolveGlobal(){
+        this.resolve(GLOBAL, UNRESOLVED);
+    }
+
+    public boolean isGlobal(){
+        return depth == GLOBAL;
+    }
+}
@@ -0,0 +1,8 @@
+package jh.craft.interpreter.ast;
+
+// Filled by the static analyst: tail is set when the function making
+// the call returns its result right away, so the call doesn't need a
+// frame of its own.
+public final class CallPosition {
+    public boolean tail;
+}
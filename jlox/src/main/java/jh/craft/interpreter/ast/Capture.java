@@ -0,0 +1,20 @@
+package jh.craft.interpreter.ast;
+
+// Filled by the static analyst: one free variable of a function and
+// where a closure of it takes the variable from when it is created.
+// LOCAL is the slot of the variable in the frame of the function
+// creating the closure, CAPTURE the index of the variable in its
+// captures. 'this' and 'super' come from the class: RECEIVER is left
+// empty until the method is bound and SUPER is the superclass.
+public final class Capture {
+    public static final Capture[] NONE = new Capture[0];
+
+    public enum Kind { LOCAL, CAPTURE, RECEIVER, SUPER }
+
+    public final Kind kind;
+    public int index;
+
+    public Capture(Kind kind){
+        this.kind = kind;
+    }
+}
@@ -20,6 +20,7 @@ public interface Expr {
         T visitSet( Set set );
         T visitThisExpr( ThisExpr thisExpr );
         T visitSuperExpr( SuperExpr superExpr );
+        T visitInline( Inline inline );
     }
 
     <T> T accept( Visitor<T> visitor );
@@ -52,14 +53,14 @@ public interface Expr {
         }
     }
 
-    record Variable( Token name ) implements Expr {
+    record Variable( Token name, Binding binding ) implements Expr {
         @Override
         public <T> T accept( Visitor<T> visitor ){ 
             return visitor.visitVariable( this );
         }
     }
 
-    record Assign( Token name, Expr value ) implements Expr {
+    record Assign( Token name, Expr value, Binding binding ) implements Expr {
         @Override
         public <T> T accept( Visitor<T> visitor ){ 
             return visitor.visitAssign( this );
@@ -73,46 +74,53 @@ public interface Expr {
         }
     }
 
-    record Call( Expr callee, Token rightParen, List<Expr> arguments ) implements Expr {
+    record Call( Expr callee, Token rightParen, List<Expr> arguments, InlineCache cache, CallPosition position ) implements Expr {
         @Override
         public <T> T accept( Visitor<T> visitor ){ 
             return visitor.visitCall( this );
         }
     }
 
-    record AnonymousFun( List<Token> parameters, List<Stmt> body ) implements Expr {
+    record AnonymousFun( List<Token> parameters, List<Stmt> body, Scope scope ) implements Expr {
         @Override
         public <T> T accept( Visitor<T> visitor ){ 
             return visitor.visitAnonymousFun( this );
         }
     }
 
-    record Get( Expr expression, Token property ) implements Expr {
+    record Get( Expr expression, Token property, PropertyCache cache ) implements Expr {
         @Override
         public <T> T accept( Visitor<T> visitor ){ 
             return visitor.visitGet( this );
         }
     }
 
-    record Set( Expr expression, Token property, Expr value ) implements Expr {
+    record Set( Expr expression, Token property, Expr value, PropertyCache cache ) implements Expr {
         @Override
         public <T> T accept( Visitor<T> visitor ){ 
             return visitor.visitSet( this );
         }
     }
 
-    record ThisExpr( Token keyword ) implements Expr {
+    record ThisExpr( Token keyword, Binding binding ) implements Expr {
         @Override
         public <T> T accept( Visitor<T> visitor ){ 
             return visitor.visitThisExpr( this );
         }
     }
 
-    record SuperExpr( Token keyword, Token identifier ) implements Expr {
+    record SuperExpr( Token keyword, Token identifier, Binding binding, Binding receiver ) implements Expr {
         @Override
         public <T> T accept( Visitor<T> visitor ){ 
             return visitor.visitSuperExpr( this );
         }
     }
 
+    record Inline( Call call, Expr body, Scope code ) implements Expr {
+        @Override
+        public <T> T accept( Visitor<T> visitor ){ 
+            return visitor.visitInline( this );
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+package jh.craft.interpreter.ast;
+
+import java.util.Arrays;
+
+// Filled by the interpreter: the callees a call site has already
+// checked (that they can be called with that many arguments). After
+// MAX_TARGETS different ones the site is megamorphic and stops caching.
+public final class InlineCache {
+    private static final int MAX_TARGETS = 4;
+
+    private final Object[] targets;
+    private int size;
+
+    public InlineCache(){
+        this.targets = new Object[MAX_TARGETS];
+        this.size = 0;
+    }
+
+    public boolean contains(Object target){
+        for(var i = 0; i < size; i++)
+            if( targets[i] == target )
+                return true;
+        return false;
+    }
+
+    public void add(Object target){
+        if( isMegamorphic() )
+            return;
+
+        if( size < MAX_TARGETS ){
+            targets[size++] = target;
+        } else {
+            // megamorphic, every call goes through the checks again
+            Arrays.fill(targets, null);
+            size = -1;
+        }
+    }
+
+    public boolean isMegamorphic(){
+        return size < 0;
+    }
+}
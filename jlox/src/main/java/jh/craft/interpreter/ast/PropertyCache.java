@@ -0,0 +1,13 @@
+package jh.craft.interpreter.ast;
+
+// Filled by the interpreter: the shape of the last instance a property
+// access saw and the index of the property in it. When setting a new
+// field, transition is the shape the instance moved to. Shapes belong to
+// a single class, so when the property is a method (index is -1) the
+// cache keeps the index of the method in the class instead.
+public final class PropertyCache {
+    public Object shape;
+    public int index;
+    public int method;
+    public Object transition;
+}
@@ -0,0 +1,14 @@
+package jh.craft.interpreter.ast;
+
+// Filled by the static analyst: how many slots the environment of a
+// block or a function body needs. For function bodies also what their
+// closures capture: the tree interpreter copies the free variables of a
+// function into the closure when it is created (see Capture), receiver
+// is the capture that takes 'this' once a method is bound (-1 if the
+// method doesn't use it) and cells the parameters closures may assign.
+public final class Scope {
+    public int size;
+    public Capture[] captures = Capture.NONE;
+    public int receiver = -1;
+    public boolean[] cells;
+}
@@ -34,35 +34,35 @@ public interface Stmt {
         }
     }
 
-    record Var( Token name, Expr initializer ) implements Stmt {
+    record Var( Token name, Expr initializer, Binding binding ) implements Stmt {
         @Override
         public <T> T accept( Visitor<T> visitor ){ 
             return visitor.visitVar( this );
         }
     }
 
-    record Block( List<Stmt> body ) implements Stmt {
+    record Block( List<Stmt> body, Scope scope ) implements Stmt {
         @Override
         public <T> T accept( Visitor<T> visitor ){ 
             return visitor.visitBlock( this );
         }
     }
 
-    record IfStmt( Expr condition, Stmt body, Stmt elseStmt ) implements Stmt {
+    record IfStmt( Token keyword, Expr condition, Stmt body, Stmt elseStmt ) implements Stmt {
         @Override
         public <T> T accept( Visitor<T> visitor ){ 
             return visitor.visitIfStmt( this );
         }
     }
 
-    record WhileStmt( Expr condition, Stmt body ) implements Stmt {
+    record WhileStmt( Token keyword, Expr condition, Stmt body ) implements Stmt {
         @Override
         public <T> T accept( Visitor<T> visitor ){ 
             return visitor.visitWhileStmt( this );
         }
     }
 
-    record FunctionDecl( Token name, List<Token> parameters, List<Stmt> body ) implements Stmt {
+    record FunctionDecl( Token name, List<Token> parameters, List<Stmt> body, Binding binding, Scope scope ) implements Stmt {
         @Override
         public <T> T accept( Visitor<T> visitor ){ 
             return visitor.visitFunctionDecl( this );
@@ -76,7 +76,7 @@ public interface Stmt {
         }
     }
 
-    record ClassDecl( Token name, Token superClass, List<FunctionDecl> methodsDecls ) implements Stmt {
+    record ClassDecl( Token name, Expr.Variable superClass, List<FunctionDecl> methodsDecls, Binding binding ) implements Stmt {
         @Override
         public <T> T accept( Visitor<T> visitor ){ 
             return visitor.visitClassDecl( this );
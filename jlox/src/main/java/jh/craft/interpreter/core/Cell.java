@@ -0,0 +1,12 @@
+package jh.craft.interpreter.core;
+
+// A local that is captured by a closure and assigned after that. The
+// frame of the function declaring it and every closure capturing it
+// hold the same cell, so they all see the assignments.
+public final class Cell {
+    public Object value;
+
+    public Cell(Object value){
+        this.value = value;
+    }
+}
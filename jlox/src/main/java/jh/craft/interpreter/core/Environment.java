@@ -3,78 +3,43 @@ package jh.craft.interpreter.core;
 import jh.craft.interpreter.types.LoxError;
 import jh.craft.interpreter.scanner.Token;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class Environment {
-    private final Object NO_VALUE = new Object();
-    private final Map<String, Object> values;
+    public static final Object NO_VALUE = new Object();
+    private final Object[] values;
     private final Environment parent;
 
-    public Environment(){
-        this(null);
-    }
-    public Environment(Environment parent){
-        this.values = new HashMap<>();
+    public Environment(Environment parent, int size){
+        this.values = new Object[size];
         this.parent = parent;
     }
 
-    public void declare(Token name){
-        values.put( name.lexeme(), NO_VALUE );
+    public void declare(int slot){
+        values[slot] = NO_VALUE;
     }
-//    public void define(Token name, Object value){
-//        var identifier = name.lexeme();
-//
-//        if( values.containsKey( name.lexeme() ) ){
-//            throw new LoxError(
-//                    name, String.format("'%s' was already defined.", identifier)
-//            );
-//        }
-//
-//        values.put( identifier, value );
-//    }
 
-    public void define(String name, Object value){
-        values.put( name, value );
+    public void define(int slot, Object value){
+        values[slot] = value;
     }
 
-
-    // TODO: optimize this for globals c:
-    public Object value(Token name, int scopeWalk){
-        var identifier = name.lexeme();
-
-        var env = ancestor(scopeWalk);
-        var values = env.values;
-        if(values.containsKey( identifier )){
-            var value = values.get(identifier);
-            if( value == NO_VALUE )
-                throw new LoxError(
-                        name, String.format("'%s' not initialized.", identifier)
-                );
-            return value;
-        }
-
-        throw new LoxError(
-                name, String.format("'%s' not defined.", identifier)
-        );
+    public Object value(Token name, int depth, int slot){
+        return initialized(name, ancestor(depth).values[slot]);
     }
 
-    public void assign(Token name, int walk, Object value){
-        var identifier = name.lexeme();
-
-        var values = ancestor(walk).values;
-
-        if(values.containsKey( identifier ))
-            values.put( identifier , value );
-        else {
+    public static Object initialized(Token name, Object value){
+        if( value == NO_VALUE )
             throw new LoxError(
-                    name.line(), name.position(),
-                    String.format("'%s' not defined.", identifier)
+                    name, String.format("'%s' not initialized.", name.lexeme())
             );
-        }
+        return value;
     }
 
+    public void assign(int depth, int slot, Object value){
+        ancestor(depth).values[slot] = value;
+    }
 
+    public Environment enclosing(){
+        return parent;
+    }
 
     private Environment ancestor(int distance){
         Environment env = this;
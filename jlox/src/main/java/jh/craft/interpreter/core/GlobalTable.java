@@ -0,0 +1,70 @@
+package jh.craft.interpreter.core;
+
+import jh.craft.interpreter.scanner.Token;
+import jh.craft.interpreter.types.LoxError;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Globals are kept in a flat array. Every name gets a stable index
+// the first time it is mentioned (even before being defined), so
+// lookups can be cached by index and later definitions (or REPL
+// redefinitions) just overwrite the value in that index.
+public class GlobalTable {
+    private static final Object UNDEFINED = new Object();
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Map<String, Integer> indexes;
+    private Object[] values;
+    private int size;
+
+    public GlobalTable(){
+        this.indexes = new HashMap<>();
+        this.values = new Object[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    public int indexOf(String name){
+        var index = indexes.get(name);
+        if( index != null )
+            return index;
+
+        if( size == values.length )
+            values = Arrays.copyOf(values, size * 2);
+
+        values[size] = UNDEFINED;
+        indexes.put(name, size);
+        return size++;
+    }
+
+    public void define(String name, Object value){
+        values[ indexOf(name) ] = value;
+    }
+
+    public void define(int index, Object value){
+        values[index] = value;
+    }
+
+    public Object value(Token name, int index){
+        var value = values[index];
+        if( value == UNDEFINED || value == Environment.NO_VALUE ){
+            throw new LoxError(
+                    name, String.format(
+                            value == UNDEFINED ? "'%s' not defined." : "'%s' not initialized.",
+                            name.lexeme()
+                    )
+            );
+        }
+        return value;
+    }
+
+    public void assign(Token name, int index, Object value){
+        if( values[index] == UNDEFINED ){
+            throw new LoxError(
+                    name, String.format("'%s' not defined.", name.lexeme())
+            );
+        }
+        values[index] = value;
+    }
+}
@@ -3,76 +3,109 @@ package jh.craft.interpreter.core;
 import jh.craft.interpreter.types.LoxCallable;
 import jh.craft.interpreter.types.LoxError;
 import jh.craft.interpreter.types.LoxErrorReporter;
+import jh.craft.interpreter.ast.Binding;
 import jh.craft.interpreter.ast.Expr;
+import jh.craft.interpreter.ast.Scope;
 import jh.craft.interpreter.ast.Stmt;
+import jh.craft.interpreter.jit.CompiledCode;
+import jh.craft.interpreter.jit.FunctionProfile;
+import jh.craft.interpreter.jit.Jit;
 import jh.craft.interpreter.scanner.Token;
 import jh.craft.interpreter.scanner.TokenType;
+import jh.craft.interpreter.utils.OutputBuffer;
 import jh.craft.interpreter.utils.Utils;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+public class Interpreter implements LoxEngine, Expr.Visitor<Object>, Stmt.Visitor<Object> {
+    static final Object NORMAL = new Object();
 
-    private final Environment globalEnv;
+    // Returned instead of the result of a call in tail position, the
+    // function making it runs the call once its own frame is gone.
+    static final class TailCall {
+        LoxFunction function;
+        Object[] captures;
+        int base;
+    }
+
+    private static final Object[] NO_CAPTURES = new Object[0];
+
+    private final GlobalTable globals;
     private final LoxErrorReporter reporter;
-    private Environment currentEnv;
-    private final Map<Token, Integer> declarationDistances;
+    // 'print' goes through here, it's written out when a run ends
+    private final OutputBuffer out;
+    // The locals of every running function and block live here, each
+    // call takes the slots above its caller's. Closures copy the ones
+    // they use (see Scope.captures), so no scope outlives its call.
+    private Object[] frames;
+    // where the frame of the running function starts
+    int fp;
+    // the first free slot
+    int top;
+    // what the closure being run captured, empty for top level code
+    Object[] captures;
+    // null unless hot functions get compiled
+    private final Jit jit;
+    // profile of the function being interpreted, if any
+    FunctionProfile activeProfile;
+    // the only tail call that can be pending at a time
+    final TailCall tailCall;
+
     public Interpreter(LoxErrorReporter reporter){
-        this.reporter = reporter;
-        this.globalEnv = new Environment();
-        this.currentEnv = globalEnv;
-        this.declarationDistances = new HashMap<>();
-        this.initGlobalEnvironment();
+        this(reporter, false);
     }
 
-    private void initGlobalEnvironment(){
-        this.globalEnv.define("clock", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (Double) (System.currentTimeMillis() / 1000.0);
-            }
+    public Interpreter(LoxErrorReporter reporter, boolean tiered){
+        this(reporter, tiered, new OutputBuffer( System.out, false ));
+    }
 
-            @Override
-            public String toString() {
-                return "<native fn>";
-            }
-        });
+    // printed values go to out, it's flushed when a run ends
+    public Interpreter(LoxErrorReporter reporter, boolean tiered, OutputBuffer out){
+        this.reporter = reporter;
+        this.out = out;
+        this.globals = new GlobalTable();
+        this.frames = new Object[256];
+        this.fp = 0;
+        this.top = 0;
+        this.captures = NO_CAPTURES;
+        this.jit = tiered ? new Jit( globals, out ) : null;
+        this.tailCall = new TailCall();
+        Natives.define( this.globals );
     }
 
-    public void interpret(List<Stmt> statements, Map<Token, Integer> declarationDistances){
+    @Override
+    public void interpret(List<Stmt> statements){
         try{
-            this.declarationDistances.putAll(
-                    declarationDistances
-            );
-//            this.declarationDistances.adddeclarationDistances;
             for( var stmt : statements )
                 execute(stmt);
         }catch (LoxError error){
+            // calls that failed before starting may have left their frames
+            Arrays.fill( frames, 0, top, null );
+            top = 0;
+            // what was printed before the error comes first
+            out.flush();
             reporter.report( error );
+        } finally {
+            out.flush();
         }
     }
 
-    private void execute(Stmt statement){
-        statement.accept( this );
+    // Statements return NORMAL, unless a 'return' was reached, then they
+    // return the value being returned. This way the value travels up to
+    // the function call without throwing anything.
+    private Object execute(Stmt statement){
+        return statement.accept( this );
     }
 
-    protected void executeBlock(List<Stmt> stmts, Environment environment){
-        var previous = this.currentEnv;
-        try{
-            this.currentEnv = environment;
-            for( var stmt : stmts )
-                execute(stmt);
-        } finally {
-            this.currentEnv = previous;
+    protected Object executeBlock(List<Stmt> stmts){
+        for( var stmt : stmts ){
+            var result = execute(stmt);
+            if( result != NORMAL )
+                return result;
         }
+        return NORMAL;
     }
 
     private Object evaluate(Expr expression){
@@ -97,20 +130,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         var op = binary.operator();
 
         if(op.type() == TokenType.EQUAL_EQUAL)
-            return isEqual(left, right);
+            return Utils.isEqual(left, right);
 
         if(op.type() == TokenType.BANG_EQUAL)
-            return !isEqual(left, right);
+            return !Utils.isEqual(left, right);
 
         if(op.type() == TokenType.PLUS) {
             if (right instanceof Double rightNr && left instanceof Double leftNr)
                 return leftNr + rightNr;
 
-            if(right instanceof String rightStr)
-                return Utils.stringifyValue(left) + rightStr;
-
-            if(left instanceof String leftStr)
-                return leftStr + Utils.stringifyValue(right);
+            if(Utils.isString(left) || Utils.isString(right))
+                return Utils.concat(left, right);
 
             throw new LoxError(op, String.format(
                     "Expected either number or at least one string operand but got: %s and %s",
@@ -144,7 +174,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         var op = unary.operator();
         var value = evaluate(unary.expression());
         return switch (op.type()){
-            case BANG -> ! isTruly( value );
+            case BANG -> ! Utils.isTruly( value );
             case MINUS -> {
                checkNumberOperands(op, value);
                yield  - (Double) value;
@@ -157,16 +187,24 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariable(Expr.Variable variable) {
-        return resolve(variable.name());
+        return lookUp(variable.name(), variable.binding());
     }
 
     @Override
     public Object visitAssign(Expr.Assign assign) {
         var value = evaluate(assign.value());
-        var walk = declarationDistances.get( assign.name() );
-        currentEnv.assign(
-                assign.name(), walk, value
-        );
+        var name = assign.name();
+        var binding = assign.binding();
+
+        if( binding.isGlobal() )
+            globals.assign( name, globalIndex(name, binding), value );
+        else if( binding.frameSlot == Binding.NOT_IN_FRAME )
+            ((Cell) captures[ binding.capture ]).value = value;
+        else if( binding.cell )
+            ((Cell) frames[ fp + binding.frameSlot ]).value = value;
+        else
+            frames[ fp + binding.frameSlot ] = value;
+
         return null;
     }
 
@@ -177,23 +215,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         var op = logical.operator().type();
 
         if( op == TokenType.AND )
-            return !isTruly(left) ? left : evaluate(right);
+            return !Utils.isTruly(left) ? left : evaluate(right);
         else
-            return isTruly(left) ? left : evaluate(right);
-    }
-
-    public boolean isEqual(Object fst, Object snd){
-        if(fst == null) return snd == null;
-        else return fst.equals(snd);
+            return Utils.isTruly(left) ? left : evaluate(right);
     }
 
-    public boolean isTruly(Object value){
-        if( value == null ) return false;
-        else if( value instanceof  Boolean ) return (Boolean) value;
-        else return true;
-    }
-
-
     public void checkNumberOperands(Token operator, Object ...values){
         for( var val : values )
             if(!( val instanceof Double)){
@@ -204,97 +230,128 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitExpression(Stmt.Expression expression) {
+    public Object visitInline(Expr.Inline inline) {
+        var call = inline.call();
+        var callee = evaluate( call.callee() );
+
+        // the body is only valid while the callee is the function it was copied from
+        if( callee instanceof LoxMethod method && method.code() == inline.code() )
+            return evaluate( inline.body() );
+        return call( call, callee );
+    }
+
+    @Override
+    public Object visitExpression(Stmt.Expression expression) {
         // TODO: add a listener for when we are in REPL mode
         evaluate(expression.expression());
-        return null;
+        return NORMAL;
     }
 
     @Override
-    public Void visitPrint(Stmt.Print print) {
-        var result = evaluate(print.expression());
-        System.out.println(
-                Utils.stringifyValue( result )
-        );
-        return null;
+    public Object visitPrint(Stmt.Print print) {
+        out.println( evaluate(print.expression()) );
+        return NORMAL;
     }
 
     @Override
-    public Void visitVar(Stmt.Var var) {
+    public Object visitVar(Stmt.Var var) {
         var initializer = var.initializer();
-        if(initializer == null)
-            currentEnv.declare( var.name() );
-        else
-            currentEnv.define( var.name().lexeme(), evaluate(initializer) );
-        return null;
+        declare( var.binding() );
+        define(
+            var.name(), var.binding(), initializer == null ? Environment.NO_VALUE : evaluate(initializer)
+        );
+        return NORMAL;
     }
 
     @Override
-    public Void visitBlock(Stmt.Block block) {
-        this.executeBlock(
-                block.body(), new Environment( currentEnv )
-        );
-        return null;
+    public Object visitBlock(Stmt.Block block) {
+        var scope = block.scope();
+        var base = push( scope.size );
+        try{
+            return this.executeBlock( block.body() );
+        } finally {
+            pop( base, scope.size );
+        }
     }
 
     @Override
-    public Void visitIfStmt(Stmt.IfStmt ifStmt) {
+    public Object visitIfStmt(Stmt.IfStmt ifStmt) {
         var condition = evaluate( ifStmt.condition() );
-        if( isTruly(condition) )
-            execute( ifStmt.body() );
+        if( Utils.isTruly(condition) )
+            return execute( ifStmt.body() );
         else if( ifStmt.elseStmt() != null )
-            execute( ifStmt.elseStmt() );
-        return null;
+            return execute( ifStmt.elseStmt() );
+        return NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.WhileStmt whileStmt) {
+    public Object visitWhileStmt(Stmt.WhileStmt whileStmt) {
         var condition = whileStmt.condition();
-        while( isTruly( evaluate( condition ) ) )
-            execute( whileStmt.body() );
-        return null;
+        while( Utils.isTruly( evaluate( condition ) ) ){
+            var result = execute( whileStmt.body() );
+            if( result != NORMAL )
+                return result;
+            if( activeProfile == null )
+                continue;
+
+            // a hot loop runs the rest of its iterations compiled
+            var code = activeProfile.backEdge( whileStmt, frames, fp );
+            if( code != null )
+                return runLoop( code );
+        }
+        return NORMAL;
+    }
+
+    private Object runLoop(CompiledCode code){
+        var frame = frames;
+        var result = code.run( captures, frame, fp );
+        if( result != CompiledCode.NORMAL )
+            return result;
+
+        // the loop wrote its locals back to the frames it was given,
+        // the calls it made may have grown them into a new array since
+        if( frame != frames )
+            System.arraycopy( frame, fp, frames, fp, top - fp );
+        return NORMAL;
     }
 
     @Override
-    public Void visitFunctionDecl(Stmt.FunctionDecl function) {
-        currentEnv.define(
-                function.name().lexeme(), new LoxFunction(currentEnv, function)
+    public Object visitFunctionDecl(Stmt.FunctionDecl function) {
+        // the function may capture itself
+        declare( function.binding() );
+        define(
+                function.name(), function.binding(), new LoxFunction(this, capture(function.scope(), null), function)
         );
-        return null;
+        return NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.ReturnStmt returnStmt) {
+    public Object visitReturnStmt(Stmt.ReturnStmt returnStmt) {
         var returnValue = returnStmt.value();
-        throw new Return(
-            returnValue == null ? null : evaluate(returnValue)
-        );
+        return returnValue == null ? null : evaluate(returnValue);
     }
 
     @Override
-    public Void visitClassDecl(Stmt.ClassDecl classDecl) {
+    public Object visitClassDecl(Stmt.ClassDecl classDecl) {
         var declarations = classDecl.methodsDecls();
-        var env = currentEnv;
+        declare( classDecl.binding() );
 
         Object superClass = null;
         if(classDecl.superClass() != null ){
-            superClass = resolve( classDecl.superClass() );
+            superClass = evaluate( classDecl.superClass() );
             if(!(superClass instanceof LoxClass)){
                 throw new LoxError(
-                        classDecl.superClass(),
+                        classDecl.superClass().name(),
                         "Super class should be a class."
                 );
             }
-
-            env = new Environment(env);
-            env.define("super", superClass);
         }
 
 
         var methods = new ArrayList<LoxFunction>( declarations.size() );
         for( var decl : declarations ){
             methods.add(new LoxFunction(
-                    env, decl
+                    this, capture(decl.scope(), superClass), decl
             ));
         }
 
@@ -304,13 +361,128 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         );
 
         // TODO: think about this ...
-        currentEnv.define(className.lexeme(), klass);
-        return null;
+        define(className, classDecl.binding(), klass);
+        return NORMAL;
     }
 
     @Override
     public Object visitCall(Expr.Call call) {
-        var callee = evaluate( call.callee() );
+        // a method call, the method doesn't need to be bound
+        if( call.callee() instanceof Expr.Get get )
+            return invoke( call, get );
+
+        return call( call, evaluate( call.callee() ) );
+    }
+
+    private Object call(Expr.Call call, Object callee){
+        var arguments = call.arguments();
+
+        // closures of the same declaration share the checks
+        var cache = call.cache();
+        var target = callee instanceof LoxFunction function ? function.code() : callee;
+        if( !cache.contains( target ) ){
+            checkCallable( call, callee );
+            cache.add( target );
+        }
+
+        // the arguments go straight into the frame of the call
+        if( callee instanceof LoxFunction function ){
+            var base = push( function.frameSize() );
+            for(var i = 0; i < arguments.size(); i++)
+                function.argument( base, i, evaluate( arguments.get(i) ) );
+            return run( call, function, function.captures(), base );
+        }
+
+        var values = new ArrayList<>( arguments.size() );
+        for(var expr : arguments)
+            values.add( this.evaluate( expr ) );
+
+        return ((LoxCallable) callee).call( values );
+    }
+
+    private Object invoke(Expr.Call call, Expr.Get get){
+        var result = evaluate( get.expression() );
+        var property = get.property();
+
+        if(!(result instanceof LoxInstance instance)){
+            throw new LoxError(
+                    property, String.format(
+                          "Can only get property from class instances not from '%s'.", result
+                    )
+            );
+        }
+
+        var cache = get.cache();
+        if( instance.shape() != cache.shape && !instance.lookUp( property.lexeme(), cache ) )
+            return instance.get( property );
+
+        // fields shadow methods
+        if( cache.index >= 0 )
+            return call( call, instance.field( cache.index ) );
+
+        var method = instance.klass().method( cache.method );
+        if( !(method instanceof LoxFunction function) )
+            return call( call, method.bind( instance ) );
+
+        var callCache = call.cache();
+        if( !callCache.contains( function.code() ) ){
+            checkCallable( call, function );
+            callCache.add( function.code() );
+        }
+
+        var arguments = call.arguments();
+        var captures = function.captures( instance );
+        var base = push( function.frameSize() );
+        for(var i = 0; i < arguments.size(); i++)
+            function.argument( base, i, evaluate( arguments.get(i) ) );
+        return run( call, function, captures, base );
+    }
+
+    private Object run(Expr.Call call, LoxFunction function, Object[] captures, int base){
+        if( !call.position().tail )
+            return function.execute( captures, base );
+        return tailCall( function, captures, base );
+    }
+
+    // the function running now makes the call once its frame is gone
+    Object tailCall(LoxFunction function, Object[] captures, int base){
+        tailCall.function = function;
+        tailCall.captures = captures;
+        tailCall.base = base;
+        return tailCall;
+    }
+
+    // reserves size slots in the frame stack, returns the first one
+    int push(int size){
+        var base = top;
+        top += size;
+        if( top > frames.length )
+            frames = Arrays.copyOf( frames, Math.max( top, frames.length * 2 ) );
+        return base;
+    }
+
+    // the slots are cleared so they don't keep anything alive
+    void pop(int base, int size){
+        Arrays.fill( frames, base, base + size, null );
+        top = base;
+    }
+
+    // a tail call leaves its frame above the caller's, it takes its place
+    void moveFrame(int from, int to, int size){
+        System.arraycopy( frames, from, frames, to, size );
+        Arrays.fill( frames, to + size, Math.max( from + size, to + size ), null );
+        top = to + size;
+    }
+
+    Object[] frames(){
+        return frames;
+    }
+
+    void setFrameSlot(int slot, Object value){
+        frames[slot] = value;
+    }
+
+    private void checkCallable(Expr.Call call, Object callee){
         if(!(callee instanceof LoxCallable function)){
             throw new LoxError(
                     call.rightParen(), "Can only call functions and classes constructors."
@@ -325,17 +497,31 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     )
             );
         }
-
-        var values = new ArrayList<>( arguments.size() );
-        for(var expr : arguments)
-            values.add( this.evaluate( expr ) );
-
-        return function.call( this, values );
     }
 
     @Override
     public Object visitAnonymousFun(Expr.AnonymousFun anonymousFun) {
-        return new LoxFunction.AnonymousFunction(currentEnv, anonymousFun);
+        return new LoxFunction.AnonymousFunction(this, capture(anonymousFun.scope(), null), anonymousFun);
+    }
+
+    // the free variables of a closure of the function being created here
+    private Object[] capture(Scope function, Object superClass){
+        var captures = function.captures;
+        if( captures.length == 0 )
+            return NO_CAPTURES;
+
+        var values = new Object[ captures.length ];
+        for(var i = 0; i < captures.length; i++){
+            var capture = captures[i];
+            values[i] = switch (capture.kind){
+                case LOCAL -> frames[ fp + capture.index ];
+                case CAPTURE -> this.captures[ capture.index ];
+                case SUPER -> superClass;
+                // filled when the method is bound
+                case RECEIVER -> null;
+            };
+        }
+        return values;
     }
 
     @Override
@@ -350,7 +536,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             );
         }
 
-        return instance.get( get.property() );
+        return instance.get( get.property(), get.cache() );
     }
 
     @Override
@@ -364,24 +550,20 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             );
         }
 
-        var value = evaluate(set.value());
-        var prop = set.property();
-        instance.set( prop.lexeme(), value);
+        instance.set( set.property().lexeme(), evaluate(set.value()), set.cache() );
         return null;
     }
 
     @Override
     public Object visitThisExpr(Expr.ThisExpr thisExpr) {
-        return resolve(thisExpr.keyword());
+        return lookUp(thisExpr.keyword(), thisExpr.binding());
     }
 
     @Override
     public Object visitSuperExpr(Expr.SuperExpr superExpr) {
-        int distance = declarationDistances.get( superExpr.keyword() );
-
-        var superClass = (LoxClass) currentEnv.value(superExpr.keyword(), distance);
-        var mocking = new Token(TokenType.THIS, "this", null, 0, 0);
-        var inst = (LoxInstance) currentEnv.value(mocking, distance - 1);
+        var keyword = superExpr.keyword();
+        var superClass = (LoxClass) lookUp(keyword, superExpr.binding());
+        var inst = (LoxInstance) lookUp(keyword, superExpr.receiver());
 
         var method = superClass.findMethod(
                 superExpr.identifier()
@@ -392,8 +574,46 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
 
-    public Object resolve(Token name){
-        var walk = declarationDistances.get( name );
-        return currentEnv.value( name, walk );
+    FunctionProfile profile(Object declarationSite, Stmt.FunctionDecl declaration){
+        return jit == null ? null : jit.profile( declarationSite, declaration );
+    }
+
+    private Object lookUp(Token name, Binding binding){
+        if( binding.isGlobal() )
+            return globals.value( name, globalIndex(name, binding) );
+
+        var value = binding.frameSlot == Binding.NOT_IN_FRAME
+                ? captures[ binding.capture ]
+                : frames[ fp + binding.frameSlot ];
+        if( binding.cell )
+            value = ((Cell) value).value;
+        return Environment.initialized( name, value );
+    }
+
+    // locals shared with closures get their cell before anything can capture them
+    private void declare(Binding binding){
+        if( binding.cell )
+            frames[ fp + binding.frameSlot ] = new Cell( Environment.NO_VALUE );
+    }
+
+    // declarations always are in the frame of the running code
+    private void define(Token name, Binding binding, Object value){
+        if( binding.isGlobal() )
+            globals.define( globalIndex(name, binding), value );
+        else if( binding.cell )
+            ((Cell) frames[ fp + binding.frameSlot ]).value = value;
+        else
+            frames[ fp + binding.frameSlot ] = value;
+    }
+
+    // looks up the global only the first time, after
+    // that the binding remembers its index in the table.
+    private int globalIndex(Token name, Binding binding){
+        var index = binding.slot;
+        if( index == Binding.UNRESOLVED ){
+            index = globals.indexOf( name.lexeme() );
+            binding.slot = index;
+        }
+        return index;
     }
 }
@@ -2,34 +2,57 @@ package jh.craft.interpreter.core;
 
 import jh.craft.interpreter.types.LoxErrorReporter;
 import jh.craft.interpreter.scanner.LoxScanner;
+import jh.craft.interpreter.scanner.Source;
+import jh.craft.interpreter.scanner.TokenStream;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class Lox {
     private boolean hasError;
+    private boolean scanFailed;
     private final LoxErrorReporter reporter;
-    private final Interpreter interpreter;
+    private final LoxEngine engine;
+    // where the optimizer describes its changes, null when it's turned off
+    private final Consumer<String> optimizerNotes;
 
     public Lox(LoxErrorReporter reporter) {
+        this(reporter, Interpreter::new);
+    }
+
+    public Lox(LoxErrorReporter reporter, Function<LoxErrorReporter, LoxEngine> engine) {
+        this(reporter, engine, note -> {});
+    }
+
+    // the engine receives the reporter it should use for runtime errors
+    public Lox(LoxErrorReporter reporter, Function<LoxErrorReporter, LoxEngine> engine,
+               Consumer<String> optimizerNotes) {
         this.reporter = error -> {
             hasError = true;
             reporter.report( error );
         };
         this.hasError = false;
 
-        this.interpreter = new Interpreter( this.reporter );
+        this.engine = engine.apply( this.reporter );
+        this.optimizerNotes = optimizerNotes;
     }
 
     public void run(String sourceCode){
-        var tokens = new LoxScanner(
-                sourceCode, reporter
-        ).getTokens();
+        this.run( Source.of( sourceCode ) );
+    }
 
-        if (hasError){
-            this.reset();
-            return;
-        }
+    public void run(Source sourceCode){
+        // the parser pulls the tokens as it goes, so once the scanner fails
+        // what the parser says about the rest is just noise
+        var scanner = new LoxScanner(sourceCode, error -> {
+            scanFailed = true;
+            reporter.report( error );
+        });
 
         var statements = new LoxParser(
-                tokens, reporter
+                new TokenStream( scanner ), error -> {
+                    if( !scanFailed ) reporter.report( error );
+                }
         ).parse();
 
         if(hasError){
@@ -37,21 +60,25 @@ public class Lox {
             return;
         }
 
-        var distances = new LoxStaticAnalyst(
+        new LoxStaticAnalyst(
                 reporter
-        ).declarationDistances(statements);
+        ).analyse(statements);
 
         if(hasError){
             this.reset();
             return;
         }
 
-        interpreter.interpret( statements, distances );
+        if( optimizerNotes != null )
+            statements = new LoxOptimizer( optimizerNotes ).optimize( statements );
+
+        engine.interpret( statements );
     }
 
 
     private void reset(){
         hasError = false;
+        scanFailed = false;
     }
 
 }
@@ -2,6 +2,8 @@ package jh.craft.interpreter.core;
 
 import jh.craft.interpreter.types.LoxCallable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -9,18 +11,47 @@ import java.util.Map;
 public class LoxClass implements LoxCallable {
 
     private final String name;
-    private final Map<String, LoxFunction> classMethods;
+    // Every method the class responds to, inherited ones included. A
+    // subclass starts from a copy of its superclass table so a method
+    // keeps its index down the hierarchy, overriding just replaces it.
+    private final Map<String, Integer> methodIndexes;
+    private final LoxMethod[] methods;
     private final LoxCallable constructor;
     private final LoxClass superClass;
-    public LoxClass(String name, LoxClass superClass, List<LoxFunction> methods) {
+    private final Shape emptyShape;
+    // how many fields new instances make room for
+    private int instanceSize;
+
+    public LoxClass(String name, LoxClass superClass, List<? extends LoxMethod> methods) {
         this.name = name;
         this.superClass = superClass;
-        this.classMethods = new HashMap<>();
+        this.emptyShape = new Shape();
+        this.instanceSize = 0;
+
+        var indexes = new HashMap<String, Integer>();
+        var table = new ArrayList<LoxMethod>();
+        if( superClass != null ){
+            indexes.putAll( superClass.methodIndexes );
+            table.addAll( Arrays.asList( superClass.methods ) );
+        }
 
-        for(var m : methods)
-            this.classMethods.put( m.name(), m );
+        LoxMethod defined = null;
+        for(var m : methods){
+            var index = indexes.get( m.name() );
+            if( index == null ){
+                indexes.put( m.name(), table.size() );
+                table.add( m );
+            } else {
+                table.set( index, m );
+            }
+
+            // 'init' isn't inherited
+            if( m.name().equals("init") )
+                defined = m;
+        }
 
-        var defined = classMethods.get("init");
+        this.methodIndexes = indexes;
+        this.methods = table.toArray( new LoxMethod[0] );
         this.constructor = defined != null ? defined : EMPTY_CONSTRUCTOR;
     }
 
@@ -30,27 +61,47 @@ public class LoxClass implements LoxCallable {
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(List<Object> arguments) {
         var object = new LoxInstance(this);
 
-        if(constructor instanceof LoxFunction aux){
+        if(constructor instanceof LoxMethod aux){
             aux.bind(object)
-               .call(interpreter, arguments);
+               .call(arguments);
         }
 
         return object;
     }
 
-    LoxFunction findMethod(String name){
-        if(classMethods.containsKey(name)){
-            return classMethods.get( name );
-        }
+    public LoxMethod findMethod(String name){
+        var index = methodIndex( name );
+        return index < 0 ? null : methods[index];
+    }
 
-        if(superClass != null){
-            return superClass.findMethod(name);
-        }
+    // -1 when the class has no such method
+    public int methodIndex(String name){
+        var index = methodIndexes.get( name );
+        return index == null ? -1 : index;
+    }
+
+    public LoxMethod method(int index){
+        return methods[index];
+    }
+
+    // the class own 'init' method, if it has one
+    public LoxMethod initializer(){
+        return constructor instanceof LoxMethod init ? init : null;
+    }
+
+    Shape emptyShape(){
+        return emptyShape;
+    }
+
+    int instanceSize(){
+        return instanceSize;
+    }
 
-        return null;
+    void grewTo(int size){
+        instanceSize = Math.max(instanceSize, size);
     }
 
     public String name() {
@@ -69,7 +120,7 @@ public class LoxClass implements LoxCallable {
         }
 
         @Override
-        public Object call(Interpreter interpreter, List<Object> arguments) {
+        public Object call(List<Object> arguments) {
             return null;
         }
     };
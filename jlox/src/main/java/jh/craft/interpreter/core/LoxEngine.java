@@ -0,0 +1,12 @@
+package jh.craft.interpreter.core;
+
+import jh.craft.interpreter.ast.Stmt;
+
+import java.util.List;
+
+// Something able to run statements that were already
+// checked by the LoxStaticAnalyst. It keeps its globals
+// between calls, so the REPL can run one line at a time.
+public interface LoxEngine {
+    void interpret(List<Stmt> statements);
+}
@@ -1,28 +1,65 @@
 package jh.craft.interpreter.core;
 
 import jh.craft.interpreter.ast.Expr;
+import jh.craft.interpreter.ast.Scope;
 import jh.craft.interpreter.ast.Stmt;
-import jh.craft.interpreter.types.LoxCallable;
+import jh.craft.interpreter.jit.FunctionProfile;
 
 import java.util.List;
 
-public class LoxFunction implements LoxCallable {
+public class LoxFunction implements LoxMethod {
 
-    private final Environment closure;
+    private final Interpreter interpreter;
+    // the free variables of the declaration, see Scope.captures
+    private final Object[] captures;
     private final Stmt.FunctionDecl declaration;
+    // null when the interpreter doesn't compile hot functions
+    private final FunctionProfile profile;
+    // the captures bound to the last receiver, so calling the method
+    // several times on the same instance doesn't copy them again
+    private LoxInstance receiver;
+    private Object[] bound;
+
+    public LoxFunction(Interpreter interpreter, Object[] captures, Stmt.FunctionDecl declaration){
+        this(interpreter, captures, declaration, interpreter.profile(declaration, declaration));
+    }
 
-    public LoxFunction(Environment closure, Stmt.FunctionDecl declaration){
-        this.closure = closure;
+    private LoxFunction(Interpreter interpreter, Object[] captures,
+                        Stmt.FunctionDecl declaration, FunctionProfile profile){
+        this.interpreter = interpreter;
+        this.captures = captures;
         this.declaration = declaration;
+        this.profile = profile;
     }
 
 
+    @Override
     public LoxFunction bind(LoxInstance object){
-        var env = new Environment( closure );
-        env.define("this", object);
-        return new LoxFunction(env, declaration);
+        // a method not using 'this' is the same for every instance
+        if( declaration.scope().receiver < 0 )
+            return this;
+        return new LoxFunction(interpreter, captures( object ), declaration, profile);
+    }
+
+    // same as bind(receiver).captures without the bound function
+    Object[] captures(LoxInstance receiver){
+        var index = declaration.scope().receiver;
+        if( index < 0 )
+            return captures;
+
+        if( receiver != this.receiver ){
+            bound = captures.clone();
+            bound[index] = receiver;
+            this.receiver = receiver;
+        }
+        return bound;
+    }
+
+    Object[] captures(){
+        return captures;
     }
 
+    @Override
     public String name(){
        return declaration.name().lexeme();
     }
@@ -33,25 +70,133 @@ public class LoxFunction implements LoxCallable {
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        var callEnv = new Environment( closure );
-
-        var params = declaration.parameters();
-        for(var i = 0; i < params.size(); i++){
-            var param = params.get(i);
-            // TODO: think about this...
-            callEnv.define(
-                    param.lexeme(), arguments.get(i)
-            );
+    public Object call(List<Object> arguments) {
+        return call( arguments.toArray() );
+    }
+
+    // compiled code passes the arguments in an array
+    public Object call(Object[] arguments){
+        return call( captures, arguments );
+    }
+
+    // Calls the method on receiver without binding it first, as
+    // compiled code does. If the function is bound already (or
+    // doesn't use 'this') the receiver is ignored.
+    public Object invoke(LoxInstance receiver, Object[] arguments){
+        return call( receiverCaptures( receiver ), arguments );
+    }
+
+    private Object call(Object[] captures, Object[] arguments){
+        // compiled code takes no frame, unless it leaves a tail call to run
+        if( profile != null ){
+            var code = profile.compiled( arguments, 0 );
+            if( code != null )
+                return complete( code.run( captures, arguments, 0 ) );
         }
+        return execute( captures, frame( arguments ) );
+    }
+
+    // A call compiled code makes in tail position, it's run by the
+    // execute loop that ran the compiled code instead of on top of it.
+    public Object tailCall(Object[] arguments){
+        return interpreter.tailCall( this, captures, frame( arguments ) );
+    }
+
+    // same as invoke for calls in tail position
+    public Object tailInvoke(LoxInstance receiver, Object[] arguments){
+        return interpreter.tailCall( this, receiverCaptures( receiver ), frame( arguments ) );
+    }
 
+    // methods are only ever seen unbound by the code calling them
+    private Object[] receiverCaptures(LoxInstance receiver){
+        var index = declaration.scope().receiver;
+        if( index < 0 || captures[index] != null )
+            return captures;
+        return captures( receiver );
+    }
+
+    private int frame(Object[] arguments){
+        var base = interpreter.push( frameSize() );
+
+        // parameters take the first slots c:
+        for(var i = 0; i < arguments.length; i++)
+            argument( base, i, arguments[i] );
+        return base;
+    }
+
+    // slots the body takes in the frame stack, its blocks push their own
+    int frameSize(){
+        return declaration.scope().size;
+    }
+
+    // parameters take the first slots of the frame
+    void argument(int base, int index, Object value){
+        var cells = declaration.scope().cells;
+        if( cells != null && cells[index] )
+            value = new Cell( value );
+        interpreter.setFrameSlot( base + index, value );
+    }
+
+    // the tail call compiled code returned already has its frame
+    private Object complete(Object result){
+        var tailCall = interpreter.tailCall;
+        if( result != tailCall )
+            return result;
+
+        var function = tailCall.function;
+        var captures = tailCall.captures;
+        tailCall.function = null;
+        tailCall.captures = null;
+        return function.execute( captures, tailCall.base );
+    }
+
+    // Tail calls made by the body run here, one after the other,
+    // so they don't take any space in the java stack.
+    Object execute(Object[] captures, int base){
+        var previous = interpreter.activeProfile;
+        var previousFp = interpreter.fp;
+        var previousCaptures = interpreter.captures;
+        var tailCall = interpreter.tailCall;
+
+        var function = this;
         try{
-            interpreter.executeBlock( declaration.body(), callEnv );
-        }catch (Return ret){
-            return ret.value;
+            for(;;){
+                interpreter.activeProfile = function.profile;
+                interpreter.fp = base;
+                interpreter.captures = captures;
+                var result = function.run( captures, base );
+                if( result != tailCall )
+                    return result == Interpreter.NORMAL ? null : result;
+
+                // the arguments were put above our frame, they take its place
+                interpreter.moveFrame( tailCall.base, base, tailCall.function.frameSize() );
+                function = tailCall.function;
+                captures = tailCall.captures;
+                tailCall.function = null;
+                tailCall.captures = null;
+            }
+        } finally {
+            interpreter.activeProfile = previous;
+            interpreter.fp = previousFp;
+            interpreter.captures = previousCaptures;
+            interpreter.pop( base, function.frameSize() );
         }
+    }
 
-        return null;
+    // the compiled code if the profile has one for the arguments in the frame
+    private Object run(Object[] captures, int base){
+        if( profile != null ){
+            var code = profile.enter( interpreter.frames(), base );
+            if( code != null )
+                return code.run( captures, interpreter.frames(), base );
+        }
+        return interpreter.executeBlock( declaration.body() );
+    }
+
+    // shared by every closure of the declaration, even the anonymous ones
+    @Override
+    public Scope code(){
+        return declaration.scope();
     }
 
 
@@ -62,9 +207,16 @@ public class LoxFunction implements LoxCallable {
 
 
     static class AnonymousFunction extends LoxFunction {
-        public AnonymousFunction(Environment closure, Expr.AnonymousFun declaration) {
+        public AnonymousFunction(Interpreter interpreter, Object[] captures, Expr.AnonymousFun declaration) {
             // TODO: fix this later
-            super(closure, new Stmt.FunctionDecl(null, declaration.parameters(), declaration.body()));
+            this(interpreter, captures, declaration, new Stmt.FunctionDecl(
+                    null, declaration.parameters(), declaration.body(), null, declaration.scope()
+            ));
+        }
+
+        private AnonymousFunction(Interpreter interpreter, Object[] captures,
+                                  Expr.AnonymousFun site, Stmt.FunctionDecl declaration) {
+            super(interpreter, captures, declaration, interpreter.profile(site, declaration));
         }
 
 
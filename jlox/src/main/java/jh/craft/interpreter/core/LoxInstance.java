@@ -1,26 +1,29 @@
 package jh.craft.interpreter.core;
 
+import jh.craft.interpreter.ast.PropertyCache;
 import jh.craft.interpreter.scanner.Token;
 import jh.craft.interpreter.types.LoxError;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LoxInstance {
 
     private final LoxClass klass;
-    private final Map<String, Object> fields;
+    private Shape shape;
+    private Object[] values;
 
     public LoxInstance(LoxClass klass) {
         this.klass = klass;
-        this.fields = new HashMap<>();
+        this.shape = klass.emptyShape();
+        this.values = new Object[ klass.instanceSize() ];
     }
 
     public Object get( Token property ){
         var identifier = property.lexeme();
 
-        if( fields.containsKey(identifier) )
-            return fields.get(identifier);
+        var index = shape.indexOf( identifier );
+        if( index >= 0 )
+            return values[index];
 
         var method = klass.findMethod( identifier );
         if(method != null)
@@ -34,7 +37,93 @@ public class LoxInstance {
     }
 
     public void set( String name, Object value ){
-        fields.put(name, value);
+        var index = shape.indexOf( name );
+        if( index >= 0 )
+            values[index] = value;
+        else
+            add( shape.with(name), value );
+    }
+
+    // Same as get, but the cache of the access remembers where the
+    // property was for the last shape it saw, skipping the lookups.
+    public Object get( Token property, PropertyCache cache ){
+        if( shape != cache.shape && !lookUp( property.lexeme(), cache ) )
+            return get( property );
+
+        if( cache.index >= 0 )
+            return values[ cache.index ];
+        return klass.method( cache.method ).bind( this );
+    }
+
+    // What calling the property calls: the field, or the method not
+    // bound yet when it's a LoxFunction, see LoxFunction.invoke.
+    public Object callee( Token property, PropertyCache cache ){
+        if( shape != cache.shape && !lookUp( property.lexeme(), cache ) )
+            return get( property );
+
+        if( cache.index >= 0 )
+            return values[ cache.index ];
+
+        var method = klass.method( cache.method );
+        return method instanceof LoxFunction ? method : method.bind( this );
+    }
+
+    // fills the cache for the shape of this instance, false if
+    // there is no such property
+    boolean lookUp( String name, PropertyCache cache ){
+        var index = shape.indexOf( name );
+        var method = index < 0 ? klass.methodIndex( name ) : -1;
+        if( index < 0 && method < 0 )
+            return false;
+
+        cache.shape = shape;
+        cache.index = index;
+        cache.method = method;
+        return true;
+    }
+
+    // Same as set, but the cache remembers the shape the instance had
+    // and where the field went (or the shape adding it led to).
+    public void set( String name, Object value, PropertyCache cache ){
+        if( shape == cache.shape ){
+            if( cache.transition == null )
+                values[ cache.index ] = value;
+            else
+                add( (Shape) cache.transition, value );
+            return;
+        }
+
+        var previous = shape;
+        set( name, value );
+
+        cache.shape = previous;
+        cache.index = shape.indexOf( name );
+        cache.transition = shape == previous ? null : shape;
+    }
+
+    LoxClass klass(){
+        return klass;
+    }
+
+    public Shape shape(){
+        return shape;
+    }
+
+    // index has to come from this instance's shape
+    public Object field(int index){
+        return values[index];
+    }
+
+    // moves to next, the shape of this one plus the new field
+    private void add(Shape next, Object value){
+        var index = shape.size();
+        if( index == values.length ){
+            values = Arrays.copyOf( values, Math.max(4, index * 2) );
+            klass.grewTo( values.length );
+        }
+
+        values[index] = value;
+        shape = next;
     }
 
     @Override
@@ -0,0 +1,16 @@
+package jh.craft.interpreter.core;
+
+import jh.craft.interpreter.ast.Scope;
+import jh.craft.interpreter.types.LoxCallable;
+
+// A function that can be declared inside a class, that
+// is, one that knows how to bind 'this' to an instance.
+public interface LoxMethod extends LoxCallable {
+    String name();
+    LoxCallable bind(LoxInstance instance);
+
+    // The scope of the declaration it was made from, the same for every
+    // closure of that declaration. Inlined calls check it to find out if
+    // the callee is still the function they copied.
+    Scope code();
+}
@@ -0,0 +1,806 @@
+package jh.craft.interpreter.core;
+
+import jh.craft.interpreter.ast.Binding;
+import jh.craft.interpreter.ast.CallPosition;
+import jh.craft.interpreter.ast.Expr;
+import jh.craft.interpreter.ast.InlineCache;
+import jh.craft.interpreter.ast.Scope;
+import jh.craft.interpreter.ast.Stmt;
+import jh.craft.interpreter.scanner.Token;
+import jh.craft.interpreter.scanner.TokenType;
+import jh.craft.interpreter.utils.Utils;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Rewrites the analysed tree before it reaches an engine: literal
+// operations are folded, locals that are never reassigned and start
+// as a literal are replaced by it, and code that can never run is
+// dropped. Calls to small functions get the body of the function
+// instead. Bindings, scopes and caches are shared with the original
+// nodes, so whatever the analyst resolved stays valid. Every change
+// is described to the notes consumer.
+public class LoxOptimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    // a local, named by the scope it lives in and its slot
+    private record Slot(Scope scope, int index) {}
+
+    private final Consumer<String> notes;
+    // mirrors the scopes of the analyst, class scopes have no Scope so they are null
+    private final List<Scope> scopes;
+    private final Map<Slot, Object> constants;
+    // functions whose calls may be inlined, a null global is declared more than once
+    private final Map<String, Stmt.FunctionDecl> globalFunctions;
+    private final Map<Slot, Stmt.FunctionDecl> localFunctions;
+    private final Map<Stmt.FunctionDecl, Inlinable> inlinables;
+    private final Set<Stmt.FunctionDecl> inlining;
+    private Set<Slot> assigned;
+    private Set<Slot> written;
+    // locals that already hold a value where the code being optimized reads them
+    private final Set<Slot> initialized;
+    private boolean lastPass;
+    private int folds;
+    // not every statement has a token of its own, so we report the closest line
+    private int line;
+
+    public LoxOptimizer(Consumer<String> notes) {
+        this.notes = notes;
+        this.scopes = new ArrayList<>();
+        this.constants = new HashMap<>();
+        this.globalFunctions = new HashMap<>();
+        this.localFunctions = new HashMap<>();
+        this.inlinables = new IdentityHashMap<>();
+        this.inlining = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.assigned = Set.of();
+        this.written = new HashSet<>();
+        this.initialized = new HashSet<>();
+    }
+
+    public List<Stmt> optimize(List<Stmt> statements){
+        // the first pass finds out which locals are ever written and
+        // which functions exist, only then the second one knows which
+        // locals are constants and which calls can be inlined.
+        lastPass = false;
+        var result = statements(statements);
+
+        assigned = written;
+        written = new HashSet<>();
+        initialized.clear();
+        lastPass = true;
+        return statements(result);
+    }
+
+    private Stmt optimize(Stmt statement){
+        return statement.accept( this );
+    }
+
+    private Expr optimize(Expr expression){
+        return expression.accept( this );
+    }
+
+    // null means the statement is gone
+    private List<Stmt> statements(List<Stmt> statements){
+        List<Stmt> result = new ArrayList<>( statements.size() );
+        var changed = false;
+
+        for(var i = 0; i < statements.size(); i++){
+            var stmt = statements.get(i);
+
+            var outerFolds = folds;
+            folds = 0;
+            var optimized = optimize(stmt);
+            if( folds > 0 )
+                note("folded %d constant operation(s)", folds);
+            folds = outerFolds;
+
+            changed |= optimized != stmt;
+            if( optimized == null )
+                continue;
+
+            result.add(optimized);
+            if( !completes(optimized) && i + 1 < statements.size() ){
+                note("removed unreachable code after this line");
+                changed = true;
+                break;
+            }
+        }
+
+        return changed ? result : statements;
+    }
+
+    // whether running the statement can go on to the next one
+    private boolean completes(Stmt statement){
+        if( statement instanceof Stmt.ReturnStmt )
+            return false;
+
+        // there is no 'break', only a 'return' leaves such a loop
+        if( statement instanceof Stmt.WhileStmt loop )
+            return !isTrue(loop.condition());
+
+        if( statement instanceof Stmt.Block block ){
+            var body = block.body();
+            return body.isEmpty() || completes(body.get(body.size() - 1));
+        }
+
+        if( statement instanceof Stmt.IfStmt ifStmt ){
+            return ifStmt.elseStmt() == null
+                    || completes(ifStmt.body())
+                    || completes(ifStmt.elseStmt());
+        }
+
+        return true;
+    }
+
+    private void note(String format, Object... args){
+        notes.accept( String.format("line %d: ", line) + String.format(format, args) );
+    }
+
+    private void seen(Token token){
+        line = token.line();
+    }
+
+
+    @Override
+    public Expr visitBinary(Expr.Binary binary) {
+        var left = optimize(binary.left());
+        var right = optimize(binary.right());
+        var op = binary.operator();
+        seen(op);
+
+        if( left instanceof Expr.Literal l && right instanceof Expr.Literal r ){
+            var value = fold(op.type(), l.value(), r.value());
+            if( value != Unfoldable.VALUE ){
+                folds++;
+                return new Expr.Literal( value );
+            }
+        }
+
+        if( left == binary.left() && right == binary.right() )
+            return binary;
+        return new Expr.Binary(left, op, right);
+    }
+
+    private enum Unfoldable { VALUE }
+
+    // the same rules as the interpreter, anything that would be
+    // a runtime error is left for the runtime to report.
+    private static Object fold(TokenType op, Object left, Object right){
+        switch (op){
+            case EQUAL_EQUAL: return Utils.isEqual(left, right);
+            case BANG_EQUAL: return !Utils.isEqual(left, right);
+            case PLUS:
+                if( left instanceof Double l && right instanceof Double r )
+                    return l + r;
+                if( right instanceof String r )
+                    return Utils.stringifyValue(left) + r;
+                if( left instanceof String l )
+                    return l + Utils.stringifyValue(right);
+                return Unfoldable.VALUE;
+            default:
+        }
+
+        if( !(left instanceof Double l) || !(right instanceof Double r) )
+            return Unfoldable.VALUE;
+
+        return switch (op){
+            case MINUS   -> l - r;
+            case STAR    -> l * r;
+            case SLASH   -> l / r;
+            case GREATER -> l > r;
+            case GREATER_EQUAL -> l >= r;
+            case LESS -> l < r;
+            case LESS_EQUAL -> l <= r;
+            default -> Unfoldable.VALUE;
+        };
+    }
+
+    @Override
+    public Expr visitLiteral(Expr.Literal literal) {
+        return literal;
+    }
+
+    @Override
+    public Expr visitGrouping(Expr.Grouping grouping) {
+        var expr = optimize(grouping.expression());
+        if( expr instanceof Expr.Literal )
+            return expr;
+        return expr == grouping.expression() ? grouping : new Expr.Grouping(expr);
+    }
+
+    @Override
+    public Expr visitUnary(Expr.Unary unary) {
+        var expr = optimize(unary.expression());
+        var op = unary.operator();
+        seen(op);
+
+        if( expr instanceof Expr.Literal literal ){
+            var value = literal.value();
+            if( op.type() == TokenType.BANG ){
+                folds++;
+                return new Expr.Literal( !Utils.isTruly(value) );
+            }
+            if( op.type() == TokenType.MINUS && value instanceof Double number ){
+                folds++;
+                return new Expr.Literal( -number );
+            }
+        }
+
+        return expr == unary.expression() ? unary : new Expr.Unary(op, expr);
+    }
+
+    @Override
+    public Expr visitVariable(Expr.Variable variable) {
+        seen(variable.name());
+        var slot = slotOf(variable.binding());
+        if( slot != null && constants.containsKey(slot) )
+            return new Expr.Literal( constants.get(slot) );
+        return variable;
+    }
+
+    @Override
+    public Expr visitAssign(Expr.Assign assign) {
+        var value = optimize(assign.value());
+        seen(assign.name());
+
+        var slot = slotOf(assign.binding());
+        if( slot != null )
+            written.add(slot);
+
+        return value == assign.value() ? assign : new Expr.Assign(assign.name(), value, assign.binding());
+    }
+
+    @Override
+    public Expr visitLogical(Expr.Logical logical) {
+        var left = optimize(logical.left());
+        var op = logical.operator();
+        seen(op);
+
+        // the left side alone decides which value we end up with
+        if( left instanceof Expr.Literal literal ){
+            folds++;
+            var truly = Utils.isTruly(literal.value());
+            var isOr = op.type() == TokenType.OR;
+            return truly == isOr ? left : optimize(logical.right());
+        }
+
+        var right = optimize(logical.right());
+        if( left == logical.left() && right == logical.right() )
+            return logical;
+        return new Expr.Logical(left, op, right);
+    }
+
+    @Override
+    public Expr visitCall(Expr.Call call) {
+        var callee = optimize(call.callee());
+        var arguments = expressions(call.arguments());
+        seen(call.rightParen());
+
+        if( callee != call.callee() || arguments != call.arguments() )
+            call = new Expr.Call(callee, call.rightParen(), arguments, call.cache(), call.position());
+
+        if( lastPass && callee instanceof Expr.Variable variable )
+            return inline(call, variable);
+        return call;
+    }
+
+    private Expr inline(Expr.Call call, Expr.Variable callee){
+        var binding = callee.binding();
+        var slot = slotOf(binding);
+
+        // a global may be rebound by any code (or a later run), a local
+        // only by the assignments we saw, otherwise no guard is needed.
+        Stmt.FunctionDecl decl;
+        boolean guarded;
+        if( binding.isGlobal() ){
+            decl = globalFunctions.get(callee.name().lexeme());
+            guarded = true;
+        } else {
+            decl = slot == null ? null : localFunctions.get(slot);
+            guarded = assigned.contains(slot);
+        }
+
+        if( decl == null || inlining.contains(decl) )
+            return call;
+
+        var inlinable = inlinables.computeIfAbsent(decl, Inlinable::new);
+        if( !inlinable.accepts(call.arguments(), this::isStable, this::canFail) )
+            return call;
+
+        // whatever the body calls is inlined too, but never the same function twice
+        var site = line;
+        inlining.add(decl);
+        var body = optimize( inlinable.substitute(call.arguments(), call.position().tail) );
+        inlining.remove(decl);
+        line = site;
+
+        note("inlined a call to '%s'%s", decl.name().lexeme(), guarded ? " (guarded)" : "");
+        return guarded ? new Expr.Inline(call, body, decl.scope()) : body;
+    }
+
+    // a value that nothing can change while an inlined body runs
+    private boolean isStable(Expr expr){
+        if( expr instanceof Expr.Literal || expr instanceof Expr.ThisExpr )
+            return true;
+
+        if( expr instanceof Expr.Variable variable ){
+            var slot = slotOf(variable.binding());
+            return slot != null && !assigned.contains(slot);
+        }
+        return false;
+    }
+
+    // whether evaluating the expression can raise an error
+    private boolean canFail(Expr expr){
+        if( expr instanceof Expr.Literal || expr instanceof Expr.ThisExpr )
+            return false;
+        if( expr instanceof Expr.Grouping grouping )
+            return canFail(grouping.expression());
+
+        // globals may not be defined, locals declared without a value not initialized
+        if( expr instanceof Expr.Variable variable ){
+            var slot = slotOf(variable.binding());
+            return slot == null || !initialized.contains(slot);
+        }
+
+        if( expr instanceof Expr.Unary unary )
+            return unary.operator().type() == TokenType.MINUS || canFail(unary.expression());
+        if( expr instanceof Expr.Binary binary )
+            return Inlinable.canFail(binary.operator()) || canFail(binary.left()) || canFail(binary.right());
+        if( expr instanceof Expr.Logical logical )
+            return canFail(logical.left()) || canFail(logical.right());
+        return true;
+    }
+
+    private List<Expr> expressions(List<Expr> expressions){
+        List<Expr> result = null;
+        for(var i = 0; i < expressions.size(); i++){
+            var expr = expressions.get(i);
+            var optimized = optimize(expr);
+            if( optimized != expr && result == null )
+                result = new ArrayList<>( expressions.subList(0, i) );
+            if( result != null )
+                result.add(optimized);
+        }
+        return result == null ? expressions : result;
+    }
+
+    @Override
+    public Expr visitAnonymousFun(Expr.AnonymousFun anonymousFun) {
+        var body = function(anonymousFun.parameters().size(), anonymousFun.body(), anonymousFun.scope());
+        if( body == anonymousFun.body() )
+            return anonymousFun;
+        return new Expr.AnonymousFun(anonymousFun.parameters(), body, anonymousFun.scope());
+    }
+
+    @Override
+    public Expr visitGet(Expr.Get get) {
+        var expr = optimize(get.expression());
+        seen(get.property());
+        return expr == get.expression() ? get : new Expr.Get(expr, get.property(), get.cache());
+    }
+
+    @Override
+    public Expr visitSet(Expr.Set set) {
+        var expr = optimize(set.expression());
+        var value = optimize(set.value());
+        seen(set.property());
+
+        if( expr == set.expression() && value == set.value() )
+            return set;
+        return new Expr.Set(expr, set.property(), value, set.cache());
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.ThisExpr thisExpr) {
+        seen(thisExpr.keyword());
+        return thisExpr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.SuperExpr superExpr) {
+        seen(superExpr.keyword());
+        return superExpr;
+    }
+
+    @Override
+    public Expr visitInline(Expr.Inline inline) {
+        return inline;
+    }
+
+    @Override
+    public Stmt visitExpression(Stmt.Expression expression) {
+        var expr = optimize(expression.expression());
+        if( expr instanceof Expr.Literal ){
+            note("removed an expression without effects");
+            return null;
+        }
+        return expr == expression.expression() ? expression : new Stmt.Expression(expr);
+    }
+
+    @Override
+    public Stmt visitPrint(Stmt.Print print) {
+        var expr = optimize(print.expression());
+        return expr == print.expression() ? print : new Stmt.Print(expr);
+    }
+
+    @Override
+    public Stmt visitVar(Stmt.Var var) {
+        var initializer = var.initializer() == null ? null : optimize(var.initializer());
+        seen(var.name());
+
+        var slot = slotOf(var.binding());
+        if( lastPass && slot != null && !assigned.contains(slot)
+                && initializer instanceof Expr.Literal literal ){
+            // every read of it is replaced, so nobody needs the slot anymore
+            constants.put(slot, literal.value());
+            note("propagated '%s' = %s", var.name().lexeme(), Utils.stringify(literal.value()));
+            return null;
+        }
+
+        if( slot != null && initializer != null )
+            initialized.add(slot);
+        return initializer == var.initializer() ? var : new Stmt.Var(var.name(), initializer, var.binding());
+    }
+
+    @Override
+    public Stmt visitBlock(Stmt.Block block) {
+        scopes.add(block.scope());
+            var body = statements(block.body());
+        scopes.remove(scopes.size() - 1);
+
+        return body == block.body() ? block : new Stmt.Block(body, block.scope());
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.IfStmt ifStmt) {
+        var condition = optimize(ifStmt.condition());
+
+        if( condition instanceof Expr.Literal literal ){
+            var taken = Utils.isTruly(literal.value()) ? ifStmt.body() : ifStmt.elseStmt();
+            seen(ifStmt.keyword());
+            note("removed the branch an 'if' never takes");
+            return taken == null ? null : optimize(taken);
+        }
+
+        var body = orEmpty(optimize(ifStmt.body()));
+        var elseStmt = ifStmt.elseStmt() == null ? null : optimize(ifStmt.elseStmt());
+
+        if( condition == ifStmt.condition() && body == ifStmt.body() && elseStmt == ifStmt.elseStmt() )
+            return ifStmt;
+        return new Stmt.IfStmt(ifStmt.keyword(), condition, body, elseStmt);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.WhileStmt whileStmt) {
+        var condition = optimize(whileStmt.condition());
+
+        if( condition instanceof Expr.Literal literal ){
+            seen(whileStmt.keyword());
+            if( !Utils.isTruly(literal.value()) ){
+                note("removed a loop that never runs");
+                return null;
+            }
+
+            // the engines only have to check a plain 'true'
+            if( !isTrue(condition) ){
+                note("simplified the loop condition to 'true'");
+                condition = new Expr.Literal( true );
+            }
+        }
+
+        var body = orEmpty(optimize(whileStmt.body()));
+        if( condition == whileStmt.condition() && body == whileStmt.body() )
+            return whileStmt;
+        return new Stmt.WhileStmt(whileStmt.keyword(), condition, body);
+    }
+
+    private static boolean isTrue(Expr expr){
+        return expr instanceof Expr.Literal literal
+                && Boolean.TRUE.equals(literal.value());
+    }
+
+    // for the places where a statement is required
+    private static Stmt orEmpty(Stmt statement){
+        return statement != null ? statement : new Stmt.Block(List.of(), new Scope());
+    }
+
+    @Override
+    public Stmt visitFunctionDecl(Stmt.FunctionDecl functionDecl) {
+        seen(functionDecl.name());
+        var slot = slotOf(functionDecl.binding());
+        if( slot != null )
+            initialized.add(slot);
+        var result = function(functionDecl);
+
+        if( !lastPass ){
+            var name = result.name().lexeme();
+            if( slot != null )
+                localFunctions.put(slot, result);
+            else
+                globalFunctions.put(name, globalFunctions.containsKey(name) ? null : result);
+        }
+        return result;
+    }
+
+    private Stmt.FunctionDecl function(Stmt.FunctionDecl decl){
+        var body = function(decl.parameters().size(), decl.body(), decl.scope());
+        if( body == decl.body() )
+            return decl;
+        return new Stmt.FunctionDecl(decl.name(), decl.parameters(), body, decl.binding(), decl.scope());
+    }
+
+    private List<Stmt> function(int parameters, List<Stmt> body, Scope scope){
+        for(var i = 0; i < parameters; i++)
+            initialized.add(new Slot(scope, i));
+
+        scopes.add(scope);
+            var result = statements(body);
+        scopes.remove(scopes.size() - 1);
+        return result;
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.ReturnStmt returnStmt) {
+        seen(returnStmt.keyword());
+        if( returnStmt.value() == null )
+            return returnStmt;
+
+        var value = optimize(returnStmt.value());
+        return value == returnStmt.value() ? returnStmt : new Stmt.ReturnStmt(returnStmt.keyword(), value);
+    }
+
+    @Override
+    public Stmt visitClassDecl(Stmt.ClassDecl classDecl) {
+        seen(classDecl.name());
+
+        // the superclass can't be replaced by a literal, so it
+        // counts as written and is never taken as a constant.
+        var superClass = classDecl.superClass();
+        if( superClass != null ){
+            var slot = slotOf(superClass.binding());
+            if( slot != null )
+                written.add(slot);
+            scopes.add(null);
+        }
+        scopes.add(null);
+
+        List<Stmt.FunctionDecl> methods = new ArrayList<>();
+        var changed = false;
+        for(var decl : classDecl.methodsDecls()){
+            var method = function(decl);
+            changed |= method != decl;
+            methods.add(method);
+        }
+
+        scopes.remove(scopes.size() - 1);
+        if( superClass != null )
+            scopes.remove(scopes.size() - 1);
+
+        var slot = slotOf(classDecl.binding());
+        if( slot != null )
+            initialized.add(slot);
+
+        if( !changed )
+            return classDecl;
+        return new Stmt.ClassDecl(classDecl.name(), superClass, methods, classDecl.binding());
+    }
+
+    // globals can be redefined by later runs, so only locals are tracked
+    private Slot slotOf(Binding binding){
+        if( binding.isGlobal() )
+            return null;
+
+        var scope = scopes.get(scopes.size() - 1 - binding.depth);
+        return scope == null ? null : new Slot(scope, binding.slot);
+    }
+
+
+    // A function whose body is a single 'return' of a small expression that
+    // only reads its parameters, literals and globals, and only calls other
+    // globals. Its calls can take that expression, with the arguments in the
+    // place of the parameters, as long as the arguments behave as before.
+    private static final class Inlinable {
+        private static final int MAX_SIZE = 16;
+
+        private final String name;
+        // null when the function can't be inlined
+        private final Expr body;
+        private final int[] reads;
+        // whether a parameter is read every time the body runs
+        private final boolean[] always;
+        // Where each parameter is first read and where the first operation
+        // that can raise an error is, counting both in evaluation order.
+        private final int[] firstRead;
+        private int firstFailure;
+        private int events;
+        private boolean calls;
+        private int size;
+
+        Inlinable(Stmt.FunctionDecl decl){
+            this.name = decl.name().lexeme();
+            this.reads = new int[decl.parameters().size()];
+            this.always = new boolean[reads.length];
+            this.firstRead = new int[reads.length];
+            this.firstFailure = Integer.MAX_VALUE;
+
+            var statements = decl.body();
+            var inlinable = statements.size() == 1
+                    && statements.get(0) instanceof Stmt.ReturnStmt returnStmt
+                    && returnStmt.value() != null
+                    && scan(returnStmt.value(), false);
+
+            this.body = inlinable ? ((Stmt.ReturnStmt) statements.get(0)).value() : null;
+        }
+
+        // false when the expression has something we don't inline
+        private boolean scan(Expr expr, boolean conditional){
+            if( ++size > MAX_SIZE )
+                return false;
+
+            if( expr instanceof Expr.Literal )
+                return true;
+            if( expr instanceof Expr.Grouping grouping )
+                return scan(grouping.expression(), conditional);
+            if( expr instanceof Expr.Unary unary ){
+                if( !scan(unary.expression(), conditional) )
+                    return false;
+                if( unary.operator().type() == TokenType.MINUS )
+                    failure();
+                return true;
+            }
+            if( expr instanceof Expr.Binary binary ){
+                if( !scan(binary.left(), conditional) || !scan(binary.right(), conditional) )
+                    return false;
+                if( canFail(binary.operator()) )
+                    failure();
+                return true;
+            }
+            if( expr instanceof Expr.Logical logical )
+                return scan(logical.left(), conditional) && scan(logical.right(), true);
+
+            if( expr instanceof Expr.Variable variable ){
+                var binding = variable.binding();
+                if( binding.isGlobal() ){
+                    // it may not be defined
+                    failure();
+                    return true;
+                }
+
+                // anything but a parameter lives in the closure
+                var parameter = binding.slot;
+                if( binding.depth != 0 || parameter >= reads.length )
+                    return false;
+
+                if( reads[parameter]++ == 0 )
+                    firstRead[parameter] = events++;
+                always[parameter] |= !conditional;
+                return true;
+            }
+
+            if( expr instanceof Expr.Call call ){
+                if( !(call.callee() instanceof Expr.Variable callee)
+                        || !callee.binding().isGlobal()
+                        || callee.name().lexeme().equals(name) )
+                    return false;
+
+                calls = true;
+                failure();
+                for(var argument : call.arguments())
+                    if( !scan(argument, conditional) )
+                        return false;
+                return true;
+            }
+
+            return false;
+        }
+
+        private void failure(){
+            if( firstFailure == Integer.MAX_VALUE )
+                firstFailure = events;
+            events++;
+        }
+
+        // everything but comparing for equality checks its operands
+        static boolean canFail(Token operator){
+            var type = operator.type();
+            return type != TokenType.EQUAL_EQUAL && type != TokenType.BANG_EQUAL;
+        }
+
+        boolean accepts(List<Expr> arguments, Predicate<Expr> isStable, Predicate<Expr> canFail){
+            if( body == null || arguments.size() != reads.length )
+                return false;
+
+            var lastRead = -1;
+            for(var i = 0; i < reads.length; i++){
+                var argument = arguments.get(i);
+                if( argument instanceof Expr.Literal )
+                    continue;
+
+                // the argument was always evaluated, errors included
+                if( !always[i] )
+                    return false;
+
+                if( !isStable.test(argument) ){
+                    // a call in the body could change what the argument reads
+                    if( calls || !isPure(argument) )
+                        return false;
+                    // anything bigger than a variable is evaluated once
+                    if( !(argument instanceof Expr.Variable) && reads[i] != 1 )
+                        return false;
+                }
+
+                // Its error has to come before any error of the body and
+                // after the ones of the arguments before it, as in a call.
+                if( canFail.test(argument) ){
+                    var read = firstRead[i];
+                    if( read > firstFailure || read < lastRead )
+                        return false;
+                    lastRead = read;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isPure(Expr expr){
+            if( expr instanceof Expr.Literal || expr instanceof Expr.Variable || expr instanceof Expr.ThisExpr )
+                return true;
+            if( expr instanceof Expr.Grouping grouping )
+                return isPure(grouping.expression());
+            if( expr instanceof Expr.Unary unary )
+                return isPure(unary.expression());
+            if( expr instanceof Expr.Binary binary )
+                return isPure(binary.left()) && isPure(binary.right());
+            if( expr instanceof Expr.Logical logical )
+                return isPure(logical.left()) && isPure(logical.right());
+            if( expr instanceof Expr.Get get )
+                return isPure(get.expression());
+            return false;
+        }
+
+        Expr substitute(List<Expr> arguments, boolean tail){
+            return substitute(body, arguments, tail);
+        }
+
+        private static Expr substitute(Expr expr, List<Expr> arguments, boolean tail){
+            if( expr instanceof Expr.Grouping grouping )
+                return new Expr.Grouping( substitute(grouping.expression(), arguments, tail) );
+
+            if( expr instanceof Expr.Unary unary )
+                return new Expr.Unary( unary.operator(), substitute(unary.expression(), arguments, false) );
+
+            if( expr instanceof Expr.Binary binary ){
+                return new Expr.Binary(
+                        substitute(binary.left(), arguments, false),
+                        binary.operator(),
+                        substitute(binary.right(), arguments, false)
+                );
+            }
+
+            if( expr instanceof Expr.Logical logical ){
+                return new Expr.Logical(
+                        substitute(logical.left(), arguments, false),
+                        logical.operator(),
+                        substitute(logical.right(), arguments, tail)
+                );
+            }
+
+            if( expr instanceof Expr.Variable variable && !variable.binding().isGlobal() )
+                return arguments.get(variable.binding().slot);
+
+            if( expr instanceof Expr.Call call ){
+                List<Expr> values = new ArrayList<>();
+                for(var argument : call.arguments())
+                    values.add( substitute(argument, arguments, false) );
+
+                // a new call site, it may not be in tail position anymore
+                var position = new CallPosition();
+                position.tail = tail;
+                return new Expr.Call(call.callee(), call.rightParen(), values, new InlineCache(), position);
+            }
+
+            // literals and globals
+            return expr;
+        }
+    }
+}
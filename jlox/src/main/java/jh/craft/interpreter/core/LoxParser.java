@@ -1,9 +1,15 @@
 package jh.craft.interpreter.core;
 
 import jh.craft.interpreter.types.*;
+import jh.craft.interpreter.ast.Binding;
+import jh.craft.interpreter.ast.CallPosition;
 import jh.craft.interpreter.ast.Expr;
+import jh.craft.interpreter.ast.InlineCache;
+import jh.craft.interpreter.ast.PropertyCache;
+import jh.craft.interpreter.ast.Scope;
 import jh.craft.interpreter.ast.Stmt;
 import jh.craft.interpreter.scanner.Token;
+import jh.craft.interpreter.scanner.TokenSource;
 import jh.craft.interpreter.scanner.TokenType;
 
 import static jh.craft.interpreter.scanner.TokenType.*;
@@ -14,11 +20,14 @@ import java.util.List;
 public class LoxParser {
     private static final int MAX_PARAMETERS = 255;
 
-    private final List<Token> tokens;
+    // Tokens are only turned into Token objects when
+    // they end up in the tree, the rest is read by type.
+    // Only the ones next to current are ever read.
+    private final TokenSource tokens;
     private final LoxErrorReporter reporter;
     private int current;
 
-    public LoxParser(List<Token> tokens, LoxErrorReporter reporter){
+    public LoxParser(TokenSource tokens, LoxErrorReporter reporter){
         this.tokens = tokens;
         this.reporter = reporter;
         this.current = 0;
@@ -47,33 +56,36 @@ public class LoxParser {
 
     private Stmt classDecl() {
         var name = consume(IDENTIFIER, "Expected an class name after 'class' keyword.");
-        Token parent = null;
+        Expr.Variable parent = null;
 
-        if( match(LESS) )
-            parent = consume(IDENTIFIER, "Expected super class name.");
+        if( match(LESS) ){
+            parent = new Expr.Variable(
+                    consume(IDENTIFIER, "Expected super class name."), new Binding()
+            );
+        }
 
-        consume(LEFT_BRACE, "Expected '{' before class body.");
+        expect(LEFT_BRACE, "Expected '{' before class body.");
 
         var methods = new ArrayList<Stmt.FunctionDecl>();
         while(!check(RIGHT_BRACE) && !isAtEnd()){
             // TODO: look at this c:
             methods.add( funDecl() );
         }
-        consume(RIGHT_BRACE, "Expected enclosing '}' after class declaration.");
+        expect(RIGHT_BRACE, "Expected enclosing '}' after class declaration.");
 
-        return new Stmt.ClassDecl(name, parent, methods);
+        return new Stmt.ClassDecl(name, parent, methods, new Binding());
     }
 
     private Stmt.FunctionDecl funDecl(){
         var name = consume(IDENTIFIER, "Expected function/method identifier.");
         var sig = funSignature();
         return new Stmt.FunctionDecl(
-                name, sig.parameters(), sig.body()
+                name, sig.parameters(), sig.body(), new Binding(), sig.scope()
         );
     }
 
     private Expr.AnonymousFun funSignature(){
-        consume(LEFT_PAREN, "Expected '(' after function/method identifier.");
+        expect(LEFT_PAREN, "Expected '(' after function/method identifier.");
 
         var parameters = new ArrayList<Token>();
         if( !check(RIGHT_PAREN) ){
@@ -87,27 +99,27 @@ public class LoxParser {
             }while(match(COMMA));
         }
 
-        consume(RIGHT_PAREN, "Expected enclosing ')' after parameters.");
-        consume(LEFT_BRACE, "Expected '{' before function body.");
+        expect(RIGHT_PAREN, "Expected enclosing ')' after parameters.");
+        expect(LEFT_BRACE, "Expected '{' before function body.");
         var body = block();
 
         return new Expr.AnonymousFun(
-                parameters, body
+                parameters, body, new Scope()
         );
     }
 
 
     private Stmt varDecl(){
-        consume(IDENTIFIER, "Expected an variable identifier.");
+        expect(IDENTIFIER, "Expected an variable identifier.");
         var name = previous();
 
         Expr initializer = null;
         if(match(EQUAL)) 
             initializer = expression();
 
-        consume(SEMICOLON, "Expected ';' after value.");
+        expect(SEMICOLON, "Expected ';' after value.");
 
-        return new Stmt.Var( name, initializer );
+        return new Stmt.Var( name, initializer, new Binding() );
     }
 
 
@@ -127,12 +139,13 @@ public class LoxParser {
                 previous(), check(SEMICOLON) ? null : expression()
         );
 
-        consume(SEMICOLON, "Expected ';' after return value.");
+        expect(SEMICOLON, "Expected ';' after return value.");
         return stmt;
     }
 
     private Stmt forStatement() {
-        consume(LEFT_PAREN, "Expected '(' after for.");
+        var keyword = previous();
+        expect(LEFT_PAREN, "Expected '(' after for.");
 
         Stmt initializer = null;
         if(match(VAR))
@@ -143,58 +156,60 @@ public class LoxParser {
         Expr condition = null;
         if(!check(SEMICOLON))
             condition = expression();
-        consume(SEMICOLON, "Expected ';' after the loop condition.");
+        expect(SEMICOLON, "Expected ';' after the loop condition.");
 
         Expr increment = null;
         if(!check(RIGHT_PAREN))
             increment = expression();
-        consume(RIGHT_PAREN, "Expected enclosing ')'.");
+        expect(RIGHT_PAREN, "Expected enclosing ')'.");
 
         Stmt body = statement();
         if( increment != null ){
             body = new Stmt.Block(List.of(
                     body, new Stmt.Expression( increment )
-            ));
+            ), new Scope());
         }
 
         if( condition == null )
             condition = new Expr.Literal( true );
 
         Stmt result = new Stmt.WhileStmt(
-               condition, body
+               keyword, condition, body
         );
 
         if( initializer != null ){
             result = new Stmt.Block(List.of(
                     initializer, result
-            ));
+            ), new Scope());
         }
 
         return result;
     }
 
     private Stmt whileStatement() {
-        consume(LEFT_PAREN, "Expected '(' after while.");
+        var keyword = previous();
+        expect(LEFT_PAREN, "Expected '(' after while.");
         var condition = expression();
-        consume(RIGHT_PAREN, "Expected enclosing ')'.");
+        expect(RIGHT_PAREN, "Expected enclosing ')'.");
         var body = statement();
 
-        return new Stmt.WhileStmt( condition, body );
+        return new Stmt.WhileStmt( keyword, condition, body );
     }
 
     private Stmt ifStatement(){
-        consume(LEFT_PAREN, "Expected '(' after 'if' keyword.");
+        var keyword = previous();
+        expect(LEFT_PAREN, "Expected '(' after 'if' keyword.");
         var condition = expression();
-        consume(RIGHT_PAREN, "Expected enclosing ')'.");
+        expect(RIGHT_PAREN, "Expected enclosing ')'.");
         var body = statement();
 
         return new Stmt.IfStmt(
-                condition, body, match(ELSE) ? statement() : null
+                keyword, condition, body, match(ELSE) ? statement() : null
         );
     }
 
     private Stmt blockStatement(){
-        return new Stmt.Block( block() );
+        return new Stmt.Block( block(), new Scope() );
     }
 
     private List<Stmt> block(){
@@ -202,7 +217,7 @@ public class LoxParser {
         while( !check(RIGHT_BRACE) && !isAtEnd() ){
             body.add( declaration() );
         }
-        consume(RIGHT_BRACE, "Expected a '}'.");
+        expect(RIGHT_BRACE, "Expected a '}'.");
         return body;
     }
 
@@ -211,7 +226,7 @@ public class LoxParser {
                 expression()
         );
 
-        consume(SEMICOLON, "Expected ';' after expression.");
+        expect(SEMICOLON, "Expected ';' after expression.");
         return statement;
     }
 
@@ -220,42 +235,103 @@ public class LoxParser {
                 expression()
         );
 
-        consume(SEMICOLON, "Expected ';' after expression.");
+        expect(SEMICOLON, "Expected ';' after expression.");
         return statement;
     }
 
+    // How tight the infix and postfix operators bind, the loosest first.
+    // Comparison, term and factor take their right operand at their own
+    // level, so they group to the right like the assignment.
+    private enum Precedence {
+        ASSIGNMENT(true), OR(false), AND(false), EQUALITY(false),
+        COMPARISON(true), TERM(true), FACTOR(true), UNARY(false), CALL(false);
+
+        private final boolean right;
+
+        Precedence(boolean right){
+            this.right = right;
+        }
+
+        // the level of the right operand
+        Precedence operand(){
+            return right ? this : values()[ ordinal() + 1 ];
+        }
+    }
+
+    // the precedence of each token as an infix operator, null for the ones that aren't
+    private static final Precedence[] INFIX = new Precedence[ TokenType.values().length ];
+
+    static {
+        infix( Precedence.ASSIGNMENT, EQUAL, SLASH_EQUAL, PLUS_EQUAL, MINUS_EQUAL, STAR_EQUAL );
+        infix( Precedence.OR, OR );
+        infix( Precedence.AND, AND );
+        infix( Precedence.EQUALITY, BANG_EQUAL, EQUAL_EQUAL );
+        infix( Precedence.COMPARISON, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL );
+        infix( Precedence.TERM, PLUS, MINUS );
+        infix( Precedence.FACTOR, SLASH, STAR );
+        infix( Precedence.CALL, LEFT_PAREN, DOT );
+    }
+
+    private static void infix(Precedence precedence, TokenType ...types){
+        for( var type : types )
+            INFIX[ type.ordinal() ] = precedence;
+    }
+
     private Expr expression(){
-        return assigment();
-    }
-
-    private Expr assigment(){
-        var expr = or();
-        if(match(
-                EQUAL,
-                SLASH_EQUAL, PLUS_EQUAL,
-                MINUS_EQUAL, STAR_EQUAL
-        )){
-            var op = this.previous();
-            var value = parseLeftSide(
-                    expr, op, assigment()
+        return expression( Precedence.ASSIGNMENT );
+    }
+
+    // A prefix expression followed by the operators that bind at
+    // least as tight as precedence, their operands are parsed by
+    // calling this again with the level of the operand.
+    private Expr expression(Precedence precedence){
+        var expr = prefix();
+        for(;;){
+            var infix = INFIX[ peekType().ordinal() ];
+            if( infix == null || infix.compareTo( precedence ) < 0 )
+                return expr;
+
+            advance();
+            expr = infix( expr, infix );
+        }
+    }
+
+    private Expr infix(Expr left, Precedence precedence){
+        var operator = previous();
+        return switch ( operator.type() ){
+            case EQUAL, SLASH_EQUAL, PLUS_EQUAL, MINUS_EQUAL, STAR_EQUAL -> assigment( left, operator );
+            case OR, AND -> new Expr.Logical(
+                    left, operator, expression( precedence.operand() )
             );
+            case LEFT_PAREN -> endCall( left );
+            case DOT -> new Expr.Get(
+                    left, consume( IDENTIFIER, "Expected an identifier after '.'" ), new PropertyCache()
+            );
+            default -> new Expr.Binary(
+                    left, operator, expression( precedence.operand() )
+            );
+        };
+    }
 
-            if(expr instanceof Expr.Variable variable ){
-                return new Expr.Assign(
-                        variable.name(), value
-                );
-            } else if(expr instanceof Expr.Get get){
-                return new Expr.Set(
-                        get.expression(), get.property(), value
-                );
-            }
+    private Expr assigment(Expr target, Token op){
+        var value = parseLeftSide(
+                target, op, expression( Precedence.ASSIGNMENT )
+        );
 
-            reporter.report(new LoxError(
-                    op, "Invalid assigment target."
-            ));
+        if(target instanceof Expr.Variable variable ){
+            return new Expr.Assign(
+                    variable.name(), value, new Binding()
+            );
+        } else if(target instanceof Expr.Get get){
+            return new Expr.Set(
+                    get.expression(), get.property(), value, new PropertyCache()
+            );
         }
 
-        return expr;
+        reporter.report(new LoxError(
+                op, "Invalid assigment target."
+        ));
+        return target;
     }
 
     private Expr parseLeftSide(Expr left, Token operator, Expr right){
@@ -282,113 +358,6 @@ public class LoxParser {
     }
 
 
-    private Expr or() {
-        var expr = and();
-
-        while(match(OR)){
-            var op = previous();
-            var right = and();
-            expr = new Expr.Logical(
-                   expr, op, right
-            );
-        }
-
-        return expr;
-    }
-
-    private Expr and() {
-        var expr = equality();
-
-        while(match(AND)){
-            var op = previous();
-            var right = equality();
-            expr = new Expr.Logical(
-                    expr, op, right
-            );
-        }
-
-        return expr;
-    }
-
-    private Expr equality(){
-        var expr = comparison();
-
-        while(match( BANG_EQUAL, EQUAL_EQUAL )){
-            var operator = previous();
-            var right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr comparison(){
-        var expr = term();
-
-        while (match( GREATER, GREATER_EQUAL, LESS, LESS_EQUAL )){
-            var operator = previous();
-            var second = comparison();
-            expr = new Expr.Binary(expr, operator, second);
-        }
-
-        return expr;
-    }
-
-    private Expr term(){
-        var expr = factor();
-
-        while( match(PLUS, MINUS) ){
-            var operator = previous();
-            var second = term();
-            expr = new Expr.Binary(expr, operator, second);
-        }
-
-        return expr;
-    }
-
-    private Expr factor(){
-        var expr = unary();
-
-        while(match(SLASH, STAR)){
-            var operator = previous();
-            var second = factor();
-            expr = new Expr.Binary(expr, operator, second);
-        }
-
-        return expr;
-    }
-
-    private Expr unary() {
-
-        if(match(MINUS, BANG)){
-            var operator = previous();
-            var second = unary();
-            return new Expr.Unary(operator, second);
-        }
-
-        return call();
-    }
-
-    private Expr call(){
-        var expr = primary();
-        while(true) {
-            if(match(LEFT_PAREN)){
-                expr = endCall(expr);
-            } else if(match(DOT)){
-                var property = consume(
-                        IDENTIFIER, "Expected an identifier after '.'"
-                );
-                expr = new Expr.Get(
-                        expr, property
-                );
-            } else
-                break;
-        }
-
-        return expr;
-    }
-
-
     private Expr endCall(Expr expr){
         var arguments = new ArrayList<Expr>();
 
@@ -403,19 +372,23 @@ public class LoxParser {
 
         var paren = consume(RIGHT_PAREN, "Expected enclosing ')' after arguments.");
         return new Expr.Call(
-                expr, paren, arguments
+                expr, paren, arguments, new InlineCache(), new CallPosition()
         );
     }
 
 
-    private Expr primary(){
-        var token = advance();
-        return switch (token.type()){
-            case NUMBER, STRING -> new Expr.Literal( token.literal() );
+    private Expr prefix(){
+        advance();
+        return switch (previousType()){
+            case MINUS, BANG -> {
+                var operator = previous();
+                yield new Expr.Unary( operator, expression( Precedence.UNARY ) );
+            }
+            case NUMBER, STRING -> new Expr.Literal( tokens.literal( current - 1 ) );
             case NIL   -> new Expr.Literal( null );
             case TRUE  -> new Expr.Literal( true );
             case FALSE -> new Expr.Literal( false );
-            case THIS  -> new Expr.ThisExpr( previous() );
+            case THIS  -> new Expr.ThisExpr( previous(), new Binding() );
             case LEFT_PAREN -> {
                 var expr = expression();
                 if( match( RIGHT_PAREN ) ){
@@ -423,13 +396,13 @@ public class LoxParser {
                 }
                 throw error("Expected enclosing ')'.");
             }
-            case IDENTIFIER -> new Expr.Variable( token );
+            case IDENTIFIER -> new Expr.Variable( previous(), new Binding() );
             case FUN -> funSignature(); // parse anonymous function
             case SUPER -> {
                 var keyword = previous();
-                consume(DOT, "Expected a '.' after 'super' keyword");
+                expect(DOT, "Expected a '.' after 'super' keyword");
                 yield new Expr.SuperExpr(
-                        keyword, consume(IDENTIFIER, "Expected an identifier.")
+                        keyword, consume(IDENTIFIER, "Expected an identifier."), new Binding(), new Binding()
                 );
             }
 
@@ -440,9 +413,9 @@ public class LoxParser {
     }
 
     public LoxError error(String msg){
-        var token = previous();
+        var index = current - 1;
         return new LoxError(
-                token.line(), token.position(), msg
+                tokens.line(index), tokens.position(index), msg
         );
     }
 
@@ -459,14 +432,14 @@ public class LoxParser {
     public boolean check(TokenType type){
         if( isAtEnd() )
             return false;
-        return peek().type() == type;
+        return peekType() == type;
     }
 
+    // there is always a next token when the current one isn't EOF
     public boolean checkNext(TokenType type) {
        if( isAtEnd() )
            return false;
-       var target = current + 1;
-       return target < tokens.size() && tokens.get(target).type() == type;
+       return tokens.type(current + 1) == type;
     }
 
     // The idea is to skip enough tokens until we
@@ -477,11 +450,11 @@ public class LoxParser {
         advance(); // skip error token c:
 
         while(!isAtEnd()){
-            if(previous().type() == SEMICOLON )
+            if(previousType() == SEMICOLON )
                 return;
 
             // TODO: think about when we get a this in the middle of a class c:
-            switch (peek().type()){
+            switch (peekType()){
                 case CLASS:
                 case IF:
                 case VAR:
@@ -498,32 +471,43 @@ public class LoxParser {
     }
 
     private Token consume(TokenType type, String msg){
-        var token = peek();
-        if( token.type() != type ){
+        expect(type, msg);
+        return previous();
+    }
+
+    // same as consume, for when the token itself isn't needed
+    private void expect(TokenType type, String msg){
+        if( peekType() != type ){
             throw new LoxError(
-                    token.line(), token.position(), msg
+                    tokens.line(current), tokens.position(current), msg
             );
         }
-        return advance();
+        advance();
     }
 
     private boolean isAtEnd(){
-        return peek().type() == EOF;
+        return peekType() == EOF;
     }
 
     private Token peek(){
-        return tokens.get(current);
+        return tokens.token(current);
+    }
+
+    private TokenType peekType(){
+        return tokens.type(current);
     }
 
-    private Token advance(){
-        if(isAtEnd())
-            return peek();
-       current++;
-       return previous();
+    private void advance(){
+        if(!isAtEnd())
+            current++;
     }
 
     private Token previous(){
-        return tokens.get( current - 1 );
+        return tokens.token( current - 1 );
+    }
+
+    private TokenType previousType(){
+        return tokens.type( current - 1 );
     }
 
 }
@@ -1,6 +1,9 @@
 package jh.craft.interpreter.core;
 
+import jh.craft.interpreter.ast.Binding;
+import jh.craft.interpreter.ast.Capture;
 import jh.craft.interpreter.ast.Expr;
+import jh.craft.interpreter.ast.Scope;
 import jh.craft.interpreter.ast.Stmt;
 import jh.craft.interpreter.scanner.Token;
 import jh.craft.interpreter.types.LoxError;
@@ -10,9 +13,68 @@ import java.util.*;
 
 public class LoxStaticAnalyst implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
-    // TODO: rename this c:
-    private final Map<Token, Integer> distanceToDeclaration;
-    private final Stack<Set<String>> declarations;
+    // A declared identifier. Closures copy the locals they capture, unless
+    // the local may change after that: it is assigned somewhere or it is
+    // captured before it gets its value (a function or class using its
+    // own name). Those live in a Cell the closures share.
+    private static final class Local {
+        final int slot;
+        // null for 'this' and 'super'
+        final Scope scope;
+        // where the scope is in the stack
+        final int level;
+        final Capture.Kind kind;
+        boolean captured;
+        boolean assigned;
+        // set while the declaration is being analysed
+        boolean pending;
+        boolean early;
+
+        Local(int slot, Scope scope, int level, Capture.Kind kind){
+            this.slot = slot;
+            this.scope = scope;
+            this.level = level;
+            this.kind = kind;
+        }
+
+        boolean cell(){
+            return captured && (assigned || early);
+        }
+    }
+
+    // the function being analysed and the free variables its closures capture
+    private static final class Function {
+        final Scope scope;
+        // where its body scope is in the stack
+        final int level;
+        final List<Local> parameters;
+        final List<Capture> captures;
+        final Map<Local, Integer> indexes;
+
+        Function(Scope scope, int level){
+            this.scope = scope;
+            this.level = level;
+            this.parameters = new ArrayList<>();
+            this.captures = new ArrayList<>();
+            this.indexes = new IdentityHashMap<>();
+        }
+    }
+
+    // a local binding, capture is its index in the captures of the
+    // function using it or -1 when it is one of the function's own
+    private record Reference(Binding binding, Local local, int capture) {}
+
+    // each scope maps its identifiers to their locals
+    private final Stack<Map<String, Local>> declarations;
+    // the Scope of each of those, class scopes have none
+    private final Stack<Scope> scopes;
+    // the block scope around a block scope, the body of a function starts anew
+    private final Map<Scope, Scope> enclosing;
+    private final Stack<Function> functions;
+    private final List<Function> analysed;
+    private final List<Reference> references;
+    // captures of locals, their frame slot is only known at the end
+    private final Map<Capture, Local> locals;
     private final LoxErrorReporter reporter;
     private final Context ctx;
 
@@ -20,19 +82,24 @@ public class LoxStaticAnalyst implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     public LoxStaticAnalyst(LoxErrorReporter reporter) {
         this.reporter = reporter;
         this.declarations = new Stack<>();
-        this.distanceToDeclaration = new TreeMap<>(Comparator.comparingInt(System::identityHashCode));
+        this.scopes = new Stack<>();
+        this.enclosing = new IdentityHashMap<>();
+        this.functions = new Stack<>();
+        this.analysed = new ArrayList<>();
+        this.references = new ArrayList<>();
+        this.locals = new IdentityHashMap<>();
 
         this.ctx = new Context();
     }
 
-    public Map<Token, Integer> declarationDistances(List<Stmt> statements) {
+    public void analyse(List<Stmt> statements) {
         try{
             for (var stmt : statements)
                 evaluate(stmt);
+            placeLocals();
         }catch (LoxError error){
             reporter.report( error );
         }
-        return distanceToDeclaration;
     }
 
     private void evaluate(Stmt statement){
@@ -70,14 +137,16 @@ public class LoxStaticAnalyst implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitVariable(Expr.Variable variable) {
-        resolve(variable.name());
+        resolve(variable.name(), variable.binding());
         return null;
     }
 
     @Override
     public Void visitAssign(Expr.Assign assign) {
         evaluate(assign.value());
-        resolve( assign.name() );
+        var local = resolve( assign.name(), assign.binding() );
+        if( local != null )
+            local.assigned = true;
         return null;
     }
 
@@ -100,7 +169,8 @@ public class LoxStaticAnalyst implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     public Void visitAnonymousFun(Expr.AnonymousFun anonymousFun) {
         evalFunction(
                 anonymousFun.parameters(),
-                anonymousFun.body()
+                anonymousFun.body(),
+                anonymousFun.scope()
         );
         return null;
     }
@@ -121,7 +191,7 @@ public class LoxStaticAnalyst implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     @Override
     public Void visitThisExpr(Expr.ThisExpr thisExpr) {
         if( ctx.inMethod() )
-            resolve( thisExpr.keyword() );
+            resolve( thisExpr.keyword(), thisExpr.binding() );
         else {
             reporter.report(new LoxError(
                 thisExpr.keyword(),
@@ -135,7 +205,9 @@ public class LoxStaticAnalyst implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     @Override
     public Void visitSuperExpr(Expr.SuperExpr superExpr) {
         if( ctx.inSubMethod() ){
-            resolve( superExpr.keyword() );
+            resolve( superExpr.keyword(), superExpr.binding() );
+            // the method is bound to the instance 'this' holds
+            resolve( "this", superExpr.receiver() );
         } else {
             reporter.report(new LoxError(
                     superExpr.keyword(),
@@ -147,6 +219,12 @@ public class LoxStaticAnalyst implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
+    @Override
+    public Void visitInline(Expr.Inline inline) {
+        // only made by the optimizer, which runs after us
+        throw new RuntimeException("Unreachable");
+    }
+
     @Override
     public Void visitExpression(Stmt.Expression expression) {
         evaluate(expression.expression());
@@ -163,16 +241,19 @@ public class LoxStaticAnalyst implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     public Void visitVar(Stmt.Var var) {
         if( var.initializer() != null )
             evaluate(var.initializer());
-        define(var.name());
+        define(var.name(), var.binding());
         return null;
     }
 
     @Override
     public Void visitBlock(Stmt.Block block) {
-        beginScope();
+        if( !scopes.empty() )
+            enclosing.put(block.scope(), scopes.peek());
+
+        beginScope(block.scope());
             for( var stmt : block.body() )
                 evaluate(stmt);
-        endScope();
+        endScope(block.scope());
         return null;
     }
 
@@ -195,12 +276,15 @@ public class LoxStaticAnalyst implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitFunctionDecl(Stmt.FunctionDecl functionDecl) {
-        define(functionDecl.name());
+        var local = define(functionDecl.name(), functionDecl.binding());
 
+        pending(local, true);
         evalFunction(
                 functionDecl.parameters(),
-                functionDecl.body()
+                functionDecl.body(),
+                functionDecl.scope()
         );
+        pending(local, false);
 
         return null;
     }
@@ -209,8 +293,10 @@ public class LoxStaticAnalyst implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     public Void visitReturnStmt(Stmt.ReturnStmt returnStmt) {
 
         if(ctx.inFunction()) {
-            if(returnStmt.value() != null)
+            if(returnStmt.value() != null){
                 evaluate(returnStmt.value());
+                markTailCalls(returnStmt.value());
+            }
         } else {
             reporter.report(new LoxError(
                 returnStmt.keyword(),
@@ -222,19 +308,31 @@ public class LoxStaticAnalyst implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
+    // calls whose result is the value being returned
+    private void markTailCalls(Expr expr){
+        if( expr instanceof Expr.Call call )
+            call.position().tail = true;
+        else if( expr instanceof Expr.Grouping grouping )
+            markTailCalls(grouping.expression());
+        else if( expr instanceof Expr.Logical logical )
+            markTailCalls(logical.right());
+    }
+
     @Override
     public Void visitClassDecl(Stmt.ClassDecl classDecl) {
-        define( classDecl.name() );
+        var local = define( classDecl.name(), classDecl.binding() );
+        pending(local, true);
 
         var prevClassCtx = ctx.swapCtx(
                 ClassContext.NORMAL
         );
 
-        var superToken = classDecl.superClass();
+        var superClass = classDecl.superClass();
 
-        if(superToken != null){
-            resolve(superToken);
+        if(superClass != null){
+            evaluate(superClass);
 
+            var superToken = superClass.name();
             var className = classDecl.name().lexeme();
             if(className.equals( superToken.lexeme() )){
                 reporter.report(new LoxError(
@@ -245,28 +343,40 @@ public class LoxStaticAnalyst implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         }
 
 
-        if(superToken != null){
-            beginScope();
-            declarations.peek().add("super");
+        if(superClass != null){
+            beginScope(null);
+            declarations.peek().put("super", classLocal(Capture.Kind.SUPER));
             ctx.swapCtx(ClassContext.SUB);
         }
 
-        beginScope();
+        beginScope(null);
 
         // this is safe to add, since there is
         // no way a user can define an identifier
         // named 'this', since this itself is a token.
-        declarations.peek().add("this");
-
-
-       for(var decl : classDecl.methodsDecls())
-           evaluate(decl);
+        // Both 'this' and 'super' live alone in the
+        // first slot of their scopes.
+        declarations.peek().put("this", classLocal(Capture.Kind.RECEIVER));
+
+        // methods are not variables, so they get no slot
+        // in the 'this' scope, we only check they are unique.
+        var methodNames = new HashSet<String>();
+        for(var decl : classDecl.methodsDecls()){
+            var name = decl.name();
+            if( !methodNames.add(name.lexeme()) ){
+                reporter.report(new LoxError(
+                        name, String.format("Identifier '%s' already defined.", name.lexeme())
+                ));
+            }
+            evalFunction(decl.parameters(), decl.body(), decl.scope());
+        }
 
-       endScope();
+        endScope();
 
-       if(classDecl.superClass() != null)
-           endScope();
+        if(classDecl.superClass() != null)
+            endScope();
 
+        pending(local, false);
 
         // restore context c:
         ctx.swapCtx(prevClassCtx);
@@ -274,58 +384,194 @@ public class LoxStaticAnalyst implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
-    private void define(Token name){
+    // null for globals
+    private Local define(Token name, Binding binding){
         // global scope c:
-        if( declarations.empty() ) return;
+        if( declarations.empty() ){
+            binding.resolveGlobal();
+            return null;
+        }
 
+        var local = declare(name);
+        binding.resolve(0, local.slot);
+        references.add(new Reference(binding, local, -1));
+        return local;
+    }
+
+    // gives the identifier the next free slot of the current scope
+    private Local declare(Token name){
         var current = declarations.peek();
         var identifier = name.lexeme();
 
-        if( !current.add(identifier) ){
+        var local = current.get(identifier);
+        if( local != null ){
             reporter.report(new LoxError(
                     name, String.format("Identifier '%s' already defined.", identifier)
             ));
+            return local;
         }
-    }
 
-    private int findScope(Token name){
-        var identifier = name.lexeme();
-        var scope = declarations.size() - 1;
+        local = new Local(current.size(), scopes.peek(), scopes.size() - 1, Capture.Kind.LOCAL);
+        current.put(identifier, local);
+        return local;
+    }
 
-        while(scope >= 0 && !declarations.get(scope).contains(identifier))
-            scope--;
+    // 'this' and 'super' live alone in the scopes of a class
+    private Local classLocal(Capture.Kind kind){
+        return new Local(0, null, scopes.size() - 1, kind);
+    }
 
-        return declarations.size() - (scope + 1);
+    // closures made meanwhile capture the local before it has a value
+    private static void pending(Local local, boolean pending){
+        if( local != null )
+            local.pending = pending;
     }
 
 
-    private void evalFunction(List<Token> params, List<Stmt> body){
+    private void evalFunction(List<Token> params, List<Stmt> body, Scope scope){
         var prev = ctx.swapCtx(
                 FunContext.NORMAL
         );
 
-        beginScope();
+        // parameters are defined first, so they
+        // always take the first slots of the scope.
+        beginScope(scope);
+        var function = new Function(scope, scopes.size() - 1);
+        functions.push(function);
             for(var name : params )
-                define(name);
+                function.parameters.add( declare(name) );
             for(var stmt : body )
                 evaluate(stmt);
-        endScope();
+        functions.pop();
+        endScope(scope);
 
+        scope.captures = function.captures.toArray(Capture.NONE);
+        analysed.add(function);
         ctx.swapCtx( prev );
     }
 
 
-    private void resolve(Token name){
-        var scope = this.findScope(name);
-        distanceToDeclaration.put( name, scope );
+    // null for globals
+    private Local resolve(Token name, Binding binding){
+        return resolve(name.lexeme(), binding);
+    }
+
+    private Local resolve(String identifier, Binding binding){
+        var scope = declarations.size() - 1;
+
+        while(scope >= 0){
+            var local = declarations.get(scope).get(identifier);
+            if( local != null ){
+                binding.resolve(declarations.size() - (scope + 1), local.slot);
+                references.add(new Reference( binding, local, capture(local) ));
+                return local;
+            }
+            scope--;
+        }
+
+        binding.resolveGlobal();
+        return null;
+    }
+
+    // the index of the local in the captures of the current
+    // function, -1 if it is one of the function's own locals
+    private int capture(Local local){
+        if( functions.empty() || local.level >= functions.peek().level )
+            return -1;
+
+        local.captured = true;
+        if( local.pending )
+            local.early = true;
+        return capture(functions.size() - 1, local);
+    }
+
+    // A function takes its free variables from the function around it:
+    // from its frame if they are declared there, otherwise from its
+    // captures, which makes that function capture them as well.
+    private int capture(int function, Local local){
+        var current = functions.get(function);
+        var index = current.indexes.get(local);
+        if( index != null )
+            return index;
+
+        Capture capture;
+        var outer = function == 0 ? 0 : functions.get(function - 1).level;
+        if( local.level >= outer ){
+            capture = new Capture(local.kind);
+            if( local.kind == Capture.Kind.LOCAL )
+                locals.put(capture, local);
+        } else {
+            capture = new Capture(Capture.Kind.CAPTURE);
+            capture.index = capture(function - 1, local);
+        }
+
+        index = current.captures.size();
+        current.captures.add(capture);
+        current.indexes.put(local, index);
+        if( capture.kind == Capture.Kind.RECEIVER )
+            current.scope.receiver = index;
+        return index;
+    }
+
+    private void beginScope(Scope scope){
+        declarations.push(new HashMap<>());
+        scopes.push(scope);
     }
 
-    private void beginScope(){
-        declarations.push(new HashSet<>());
+    private void endScope(Scope scope){
+        scope.size = declarations.peek().size();
+        endScope();
     }
 
     private void endScope(){
         declarations.pop();
+        scopes.pop();
+    }
+
+    // only once everything was seen we know the size of every
+    // scope and which locals closures share instead of copying
+    private void placeLocals(){
+        for(var reference : references){
+            var binding = reference.binding();
+            var local = reference.local();
+            binding.cell = local.cell();
+
+            if( reference.capture() < 0 ){
+                binding.frameSlot = frameSlot(local);
+            } else {
+                binding.frameSlot = Binding.NOT_IN_FRAME;
+                binding.capture = reference.capture();
+            }
+        }
+
+        for(var entry : locals.entrySet())
+            entry.getKey().index = frameSlot(entry.getValue());
+
+        for(var function : analysed){
+            var parameters = function.parameters;
+            if( parameters.stream().noneMatch(Local::cell) )
+                continue;
+
+            var cells = new boolean[parameters.size()];
+            for(var i = 0; i < cells.length; i++)
+                cells[i] = parameters.get(i).cell();
+            function.scope.cells = cells;
+        }
+
+        references.clear();
+        locals.clear();
+        analysed.clear();
+    }
+
+    private int frameSlot(Local local){
+        return frameOffset(local.scope) + local.slot;
+    }
+
+    // The scopes in the frame of a function are nested inside each
+    // other and each one starts where the one around it ends.
+    private int frameOffset(Scope scope){
+        var outer = enclosing.get(scope);
+        return outer != null ? frameOffset(outer) + outer.size : 0;
     }
 
 
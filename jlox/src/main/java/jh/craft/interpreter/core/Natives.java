@@ -0,0 +1,30 @@
+package jh.craft.interpreter.core;
+
+import jh.craft.interpreter.types.LoxCallable;
+
+import java.util.List;
+
+// Functions every engine provides out of the box c:
+public class Natives {
+
+    public static void define(GlobalTable globals){
+        globals.define("clock", CLOCK);
+    }
+
+    private static final LoxCallable CLOCK = new LoxCallable() {
+        @Override
+        public int arity() {
+            return 0;
+        }
+
+        @Override
+        public Object call(List<Object> arguments) {
+            return (Double) (System.currentTimeMillis() / 1000.0);
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    };
+}
@@ -1,9 +0,0 @@
-package jh.craft.interpreter.core;
-
-class Return extends RuntimeException{
-    final Object value;
-    public Return(Object value) {
-        super(null, null, false, false);
-        this.value = value;
-    }
-}
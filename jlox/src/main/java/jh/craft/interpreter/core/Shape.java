@@ -0,0 +1,46 @@
+package jh.craft.interpreter.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// The layout of the fields of a LoxInstance: where each field lives in
+// the instance's values. Instances of a class start with the class empty
+// shape and move to a new one each time they get a new field, instances
+// getting the same fields in the same order end up sharing their shape.
+public final class Shape {
+    private final Map<String, Integer> indexes;
+    // shapes reached by adding a field to this one
+    private Map<String, Shape> transitions;
+
+    Shape(){
+        this(Map.of());
+    }
+
+    private Shape(Map<String, Integer> indexes){
+        this.indexes = indexes;
+        this.transitions = null;
+    }
+
+    public int indexOf(String name){
+        var index = indexes.get(name);
+        return index == null ? -1 : index;
+    }
+
+    public int size(){
+        return indexes.size();
+    }
+
+    Shape with(String name){
+        if( transitions == null )
+            transitions = new HashMap<>();
+
+        var next = transitions.get(name);
+        if( next == null ){
+            var nextIndexes = new HashMap<>(indexes);
+            nextIndexes.put(name, indexes.size());
+            next = new Shape(nextIndexes);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
@@ -0,0 +1,465 @@
+package jh.craft.interpreter.exec;
+
+import jh.craft.interpreter.core.Environment;
+import jh.craft.interpreter.scanner.Token;
+import jh.craft.interpreter.types.LoxError;
+import jh.craft.interpreter.utils.Utils;
+
+import static jh.craft.interpreter.exec.ExprNode.number;
+
+// Binary operators rewrite themselves based on the operands they see.
+// They all start as Uninitialized, which on its first run looks at the
+// operands and replaces itself by a version made just for them: one that
+// only handles numbers (and doesn't box them between nested operations),
+// one that only handles strings or the generic one. Once a specialized
+// node sees something else it gives up and becomes the generic version,
+// which never changes again.
+public abstract class BinaryNode extends ExprNode {
+    protected ExprNode left, right;
+    protected final Token operator;
+
+    BinaryNode(ExprNode left, Token operator, ExprNode right) {
+        this.left = adopt(left);
+        this.operator = operator;
+        this.right = adopt(right);
+    }
+
+    // what the operator does for any kind of operands
+    abstract Object compute(Object l, Object r);
+
+    @Override
+    public Object execute(Environment env) {
+        var l = left.execute(env);
+        var r = right.execute(env);
+        return compute(l, r);
+    }
+
+    @Override
+    protected void replaceChild(ExprNode child, ExprNode replacement) {
+        if(left == child)
+            left = adopt(replacement);
+        else
+            right = adopt(replacement);
+    }
+
+
+    static final class Uninitialized extends BinaryNode {
+        Uninitialized(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object compute(Object l, Object r) {
+            return replace(specialize(l, r)).compute(l, r);
+        }
+
+        private BinaryNode specialize(Object l, Object r) {
+            var numbers = l instanceof Double && r instanceof Double;
+            return switch (operator.type()) {
+                case PLUS -> {
+                    if(numbers)
+                        yield new AddDouble(left, operator, right);
+                    if(Utils.isString(l) && Utils.isString(r))
+                        yield new AddString(left, operator, right);
+                    yield new Add(left, operator, right);
+                }
+                case MINUS -> numbers ? new SubtractDouble(left, operator, right) : new Subtract(left, operator, right);
+                case STAR -> numbers ? new MultiplyDouble(left, operator, right) : new Multiply(left, operator, right);
+                case SLASH -> numbers ? new DivideDouble(left, operator, right) : new Divide(left, operator, right);
+                case GREATER -> numbers ? new GreaterDouble(left, operator, right) : new Greater(left, operator, right);
+                case GREATER_EQUAL -> numbers ? new GreaterEqualDouble(left, operator, right) : new GreaterEqual(left, operator, right);
+                case LESS -> numbers ? new LessDouble(left, operator, right) : new Less(left, operator, right);
+                case LESS_EQUAL -> numbers ? new LessEqualDouble(left, operator, right) : new LessEqual(left, operator, right);
+                default -> {
+                    throw new RuntimeException("Unreachable");
+                }
+            };
+        }
+    }
+
+    // addition
+
+    static class Add extends BinaryNode {
+        Add(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object compute(Object l, Object r) {
+            if(l instanceof Double leftNr && r instanceof Double rightNr)
+                return leftNr + rightNr;
+
+            if(Utils.isString(l) || Utils.isString(r))
+                return Utils.concat(l, r);
+
+            throw new LoxError(operator, String.format(
+                    "Expected either number or at least one string operand but got: %s and %s",
+                    Utils.stringify(l), Utils.stringify(r)
+            ));
+        }
+    }
+
+    static final class AddDouble extends Add {
+        AddDouble(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            try {
+                return executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                return ex.value;
+            }
+        }
+
+        @Override
+        public double executeDouble(Environment env) throws UnexpectedResult {
+            double l;
+            try {
+                l = left.executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                throw new UnexpectedResult(generalize(ex.value, right.execute(env)));
+            }
+
+            try {
+                return l + right.executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                throw new UnexpectedResult(generalize(l, ex.value));
+            }
+        }
+
+        private Object generalize(Object l, Object r) {
+            return replace(new Add(left, operator, right)).compute(l, r);
+        }
+    }
+
+    static final class AddString extends Add {
+        AddString(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            var l = left.execute(env);
+            var r = right.execute(env);
+            if(Utils.isString(l) && Utils.isString(r))
+                return Utils.concat(l, r);
+            return replace(new Add(left, operator, right)).compute(l, r);
+        }
+    }
+
+    // arithmetic
+
+    static class Subtract extends BinaryNode {
+        Subtract(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object compute(Object l, Object r) {
+            return number(operator, l) - number(operator, r);
+        }
+    }
+
+    static final class SubtractDouble extends Subtract {
+        SubtractDouble(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            try {
+                return executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                return ex.value;
+            }
+        }
+
+        @Override
+        public double executeDouble(Environment env) throws UnexpectedResult {
+            double l;
+            try {
+                l = left.executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                throw new UnexpectedResult(generalize(ex.value, right.execute(env)));
+            }
+
+            try {
+                return l - right.executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                throw new UnexpectedResult(generalize(l, ex.value));
+            }
+        }
+
+        private Object generalize(Object l, Object r) {
+            return replace(new Subtract(left, operator, right)).compute(l, r);
+        }
+    }
+
+    static class Multiply extends BinaryNode {
+        Multiply(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object compute(Object l, Object r) {
+            return number(operator, l) * number(operator, r);
+        }
+    }
+
+    static final class MultiplyDouble extends Multiply {
+        MultiplyDouble(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            try {
+                return executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                return ex.value;
+            }
+        }
+
+        @Override
+        public double executeDouble(Environment env) throws UnexpectedResult {
+            double l;
+            try {
+                l = left.executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                throw new UnexpectedResult(generalize(ex.value, right.execute(env)));
+            }
+
+            try {
+                return l * right.executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                throw new UnexpectedResult(generalize(l, ex.value));
+            }
+        }
+
+        private Object generalize(Object l, Object r) {
+            return replace(new Multiply(left, operator, right)).compute(l, r);
+        }
+    }
+
+    static class Divide extends BinaryNode {
+        Divide(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object compute(Object l, Object r) {
+            return number(operator, l) / number(operator, r);
+        }
+    }
+
+    static final class DivideDouble extends Divide {
+        DivideDouble(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            try {
+                return executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                return ex.value;
+            }
+        }
+
+        @Override
+        public double executeDouble(Environment env) throws UnexpectedResult {
+            double l;
+            try {
+                l = left.executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                throw new UnexpectedResult(generalize(ex.value, right.execute(env)));
+            }
+
+            try {
+                return l / right.executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                throw new UnexpectedResult(generalize(l, ex.value));
+            }
+        }
+
+        private Object generalize(Object l, Object r) {
+            return replace(new Divide(left, operator, right)).compute(l, r);
+        }
+    }
+
+    // comparison
+
+    static class Greater extends BinaryNode {
+        Greater(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object compute(Object l, Object r) {
+            return number(operator, l) > number(operator, r);
+        }
+    }
+
+    static final class GreaterDouble extends Greater {
+        GreaterDouble(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            double l;
+            try {
+                l = left.executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                return generalize(ex.value, right.execute(env));
+            }
+
+            try {
+                return l > right.executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                return generalize(l, ex.value);
+            }
+        }
+
+        private Object generalize(Object l, Object r) {
+            return replace(new Greater(left, operator, right)).compute(l, r);
+        }
+    }
+
+    static class GreaterEqual extends BinaryNode {
+        GreaterEqual(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object compute(Object l, Object r) {
+            return number(operator, l) >= number(operator, r);
+        }
+    }
+
+    static final class GreaterEqualDouble extends GreaterEqual {
+        GreaterEqualDouble(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            double l;
+            try {
+                l = left.executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                return generalize(ex.value, right.execute(env));
+            }
+
+            try {
+                return l >= right.executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                return generalize(l, ex.value);
+            }
+        }
+
+        private Object generalize(Object l, Object r) {
+            return replace(new GreaterEqual(left, operator, right)).compute(l, r);
+        }
+    }
+
+    static class Less extends BinaryNode {
+        Less(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object compute(Object l, Object r) {
+            return number(operator, l) < number(operator, r);
+        }
+    }
+
+    static final class LessDouble extends Less {
+        LessDouble(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            double l;
+            try {
+                l = left.executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                return generalize(ex.value, right.execute(env));
+            }
+
+            try {
+                return l < right.executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                return generalize(l, ex.value);
+            }
+        }
+
+        private Object generalize(Object l, Object r) {
+            return replace(new Less(left, operator, right)).compute(l, r);
+        }
+    }
+
+    static class LessEqual extends BinaryNode {
+        LessEqual(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object compute(Object l, Object r) {
+            return number(operator, l) <= number(operator, r);
+        }
+    }
+
+    static final class LessEqualDouble extends LessEqual {
+        LessEqualDouble(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            double l;
+            try {
+                l = left.executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                return generalize(ex.value, right.execute(env));
+            }
+
+            try {
+                return l <= right.executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                return generalize(l, ex.value);
+            }
+        }
+
+        private Object generalize(Object l, Object r) {
+            return replace(new LessEqual(left, operator, right)).compute(l, r);
+        }
+    }
+
+    // equality works for any kind of value, so there is nothing to specialize
+
+    static final class Equal extends BinaryNode {
+        Equal(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object compute(Object l, Object r) {
+            return Utils.isEqual(l, r);
+        }
+    }
+
+    static final class NotEqual extends BinaryNode {
+        NotEqual(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object compute(Object l, Object r) {
+            return !Utils.isEqual(l, r);
+        }
+    }
+}
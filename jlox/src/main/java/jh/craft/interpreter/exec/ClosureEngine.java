@@ -0,0 +1,47 @@
+package jh.craft.interpreter.exec;
+
+import jh.craft.interpreter.ast.Stmt;
+import jh.craft.interpreter.core.GlobalTable;
+import jh.craft.interpreter.core.LoxEngine;
+import jh.craft.interpreter.core.Natives;
+import jh.craft.interpreter.types.LoxError;
+import jh.craft.interpreter.types.LoxErrorReporter;
+import jh.craft.interpreter.utils.OutputBuffer;
+
+import java.util.List;
+
+// Runs Lox by first compiling the AST into executable nodes
+// (see NodeCompiler) instead of visiting it over and over.
+public class ClosureEngine implements LoxEngine {
+
+    private final LoxErrorReporter reporter;
+    private final OutputBuffer out;
+    private final NodeCompiler compiler;
+
+    public ClosureEngine(LoxErrorReporter reporter) {
+        this(reporter, new OutputBuffer(System.out, false));
+    }
+
+    public ClosureEngine(LoxErrorReporter reporter, OutputBuffer out) {
+        this.reporter = reporter;
+        this.out = out;
+
+        var globals = new GlobalTable();
+        Natives.define(globals);
+        this.compiler = new NodeCompiler(globals, out);
+    }
+
+    @Override
+    public void interpret(List<Stmt> statements) {
+        try {
+            for(var stmt : compiler.compile(statements))
+                stmt.execute(null);
+        } catch (LoxError error) {
+            // what was printed before the error comes first
+            out.flush();
+            reporter.report(error);
+        } finally {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package jh.craft.interpreter.exec;
+
+import jh.craft.interpreter.ast.Scope;
+import jh.craft.interpreter.core.Environment;
+import jh.craft.interpreter.core.LoxInstance;
+import jh.craft.interpreter.core.LoxMethod;
+
+import java.util.List;
+
+public class CompiledFunction implements LoxMethod {
+
+    // Everything about a function that does not depend on where it is
+    // created, so its body is compiled once no matter how many closures
+    // are made out of it. An anonymous function has no name.
+    record Template(String name, int arity, int scopeSize, StmtNode[] body, Scope code) {}
+
+    // A call a 'return' leaves to its caller, so it runs once the
+    // returning function is off the java stack.
+    record TailCall(CompiledFunction function, List<Object> arguments) {}
+
+    private final Template template;
+    private final Environment closure;
+    // the scope holding 'this' for the last instance the method was
+    // bound to, 'this' can't be assigned so it can be reused
+    private LoxInstance receiver;
+    private Environment thisScope;
+
+    CompiledFunction(Template template, Environment closure) {
+        this.template = template;
+        this.closure = closure;
+    }
+
+    @Override
+    public CompiledFunction bind(LoxInstance instance) {
+        if( instance != receiver ){
+            thisScope = new Environment( closure, 1 );
+            thisScope.define( 0, instance );
+            receiver = instance;
+        }
+        return new CompiledFunction(template, thisScope);
+    }
+
+    @Override
+    public String name() {
+        var name = template.name();
+        return name == null ? "" : name;
+    }
+
+    @Override
+    public Scope code() {
+        return template.code();
+    }
+
+    @Override
+    public int arity() {
+        return template.arity();
+    }
+
+    @Override
+    public Object call(List<Object> arguments) {
+        var function = this;
+        while(true) {
+            var result = function.execute(arguments);
+            if(!(result instanceof TailCall tail))
+                return result;
+
+            function = tail.function();
+            arguments = tail.arguments();
+        }
+    }
+
+    private Object execute(List<Object> arguments) {
+        var env = new Environment(closure, template.scopeSize());
+
+        // parameters take the first slots c:
+        for(var i = 0; i < arguments.size(); i++)
+            env.define(i, arguments.get(i));
+
+        var result = StmtNode.executeAll(template.body(), env);
+        return result == StmtNode.NORMAL ? null : result;
+    }
+
+    @Override
+    public String toString() {
+        var name = template.name();
+        return name == null ? "<anonymous fn>" : "<fn " + name + ">";
+    }
+}
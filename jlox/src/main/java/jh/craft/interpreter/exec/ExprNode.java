@@ -0,0 +1,438 @@
+package jh.craft.interpreter.exec;
+
+import jh.craft.interpreter.ast.Scope;
+import jh.craft.interpreter.core.Environment;
+import jh.craft.interpreter.core.GlobalTable;
+import jh.craft.interpreter.core.LoxClass;
+import jh.craft.interpreter.core.LoxInstance;
+import jh.craft.interpreter.core.LoxMethod;
+import jh.craft.interpreter.scanner.Token;
+import jh.craft.interpreter.types.LoxCallable;
+import jh.craft.interpreter.types.LoxError;
+import jh.craft.interpreter.utils.Utils;
+
+import java.util.ArrayList;
+
+// An expression already turned into something that can be executed.
+// Every operator gets its own node class, so all decisions that only
+// depend on the source code (which operator, local or global, how
+// deep a variable is...) are taken once by the NodeCompiler instead
+// of on every evaluation.
+public abstract class ExprNode extends Node {
+
+    public abstract Object execute(Environment env);
+
+    // Lets nodes that know they produce numbers skip the boxing.
+    public double executeDouble(Environment env) throws UnexpectedResult {
+        var value = execute(env);
+        if(value instanceof Double nr)
+            return nr;
+        throw new UnexpectedResult(value);
+    }
+
+    // Puts the replacement where this node was in its parent. The
+    // replacement should have already adopted this node's children.
+    protected final <T extends ExprNode> T replace(T replacement) {
+        parent().replaceChild(this, replacement);
+        return replacement;
+    }
+
+
+    static final class Literal extends ExprNode {
+        private final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            return value;
+        }
+
+        @Override
+        public double executeDouble(Environment env) throws UnexpectedResult {
+            if(value instanceof Double nr)
+                return nr;
+            throw new UnexpectedResult(value);
+        }
+    }
+
+    // variables
+
+    static final class LocalRead extends ExprNode {
+        private final Token name;
+        private final int depth, slot;
+
+        LocalRead(Token name, int depth, int slot) {
+            this.name = name;
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            return env.value(name, depth, slot);
+        }
+    }
+
+    static final class GlobalRead extends ExprNode {
+        private final Token name;
+        private final GlobalTable globals;
+        private final int index;
+
+        GlobalRead(Token name, GlobalTable globals, int index) {
+            this.name = name;
+            this.globals = globals;
+            this.index = index;
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            return globals.value(name, index);
+        }
+    }
+
+    static final class LocalAssign extends ExprNode {
+        private ExprNode value;
+        private final int depth, slot;
+
+        LocalAssign(ExprNode value, int depth, int slot) {
+            this.value = adopt(value);
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            env.assign(depth, slot, value.execute(env));
+            return null;
+        }
+
+        @Override
+        protected void replaceChild(ExprNode child, ExprNode replacement) {
+            value = adopt(replacement);
+        }
+    }
+
+    static final class GlobalAssign extends ExprNode {
+        private final Token name;
+        private ExprNode value;
+        private final GlobalTable globals;
+        private final int index;
+
+        GlobalAssign(Token name, ExprNode value, GlobalTable globals, int index) {
+            this.name = name;
+            this.value = adopt(value);
+            this.globals = globals;
+            this.index = index;
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            globals.assign(name, index, value.execute(env));
+            return null;
+        }
+
+        @Override
+        protected void replaceChild(ExprNode child, ExprNode replacement) {
+            value = adopt(replacement);
+        }
+    }
+
+    // operators (binary ones live in BinaryNode)
+
+    static final class Negate extends ExprNode {
+        private final Token operator;
+        private ExprNode expression;
+
+        Negate(Token operator, ExprNode expression) {
+            this.operator = operator;
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            return -number(operator, expression.execute(env));
+        }
+
+        @Override
+        public double executeDouble(Environment env) {
+            try {
+                return -expression.executeDouble(env);
+            } catch (UnexpectedResult ex) {
+                return -number(operator, ex.value);
+            }
+        }
+
+        @Override
+        protected void replaceChild(ExprNode child, ExprNode replacement) {
+            expression = adopt(replacement);
+        }
+    }
+
+    static final class Not extends ExprNode {
+        private ExprNode expression;
+
+        Not(ExprNode expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            return !Utils.isTruly(expression.execute(env));
+        }
+
+        @Override
+        protected void replaceChild(ExprNode child, ExprNode replacement) {
+            expression = adopt(replacement);
+        }
+    }
+
+    abstract static class Logical extends ExprNode {
+        protected ExprNode left, right;
+
+        Logical(ExprNode left, ExprNode right) {
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        protected void replaceChild(ExprNode child, ExprNode replacement) {
+            if(left == child)
+                left = adopt(replacement);
+            else
+                right = adopt(replacement);
+        }
+    }
+
+    static final class And extends Logical {
+        And(ExprNode left, ExprNode right) {
+            super(left, right);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            var l = left.execute(env);
+            return !Utils.isTruly(l) ? l : right.execute(env);
+        }
+    }
+
+    static final class Or extends Logical {
+        Or(ExprNode left, ExprNode right) {
+            super(left, right);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            var l = left.execute(env);
+            return Utils.isTruly(l) ? l : right.execute(env);
+        }
+    }
+
+    // functions and classes
+
+    static final class Call extends ExprNode {
+        private ExprNode callee;
+        private final ExprNode[] arguments;
+        private final Token rightParen;
+        private final boolean tail;
+
+        Call(ExprNode callee, ExprNode[] arguments, Token rightParen, boolean tail) {
+            this.callee = adopt(callee);
+            this.arguments = arguments;
+            this.rightParen = rightParen;
+            this.tail = tail;
+
+            for(var arg : arguments)
+                adopt(arg);
+        }
+
+        @Override
+        protected void replaceChild(ExprNode child, ExprNode replacement) {
+            if(callee == child) {
+                callee = adopt(replacement);
+                return;
+            }
+
+            for(var i = 0; i < arguments.length; i++)
+                if(arguments[i] == child)
+                    arguments[i] = adopt(replacement);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            return call(callee.execute(env), env);
+        }
+
+        // the rest of the call once the callee is known
+        Object call(Object value, Environment env) {
+            if(!(value instanceof LoxCallable function)) {
+                throw new LoxError(
+                        rightParen, "Can only call functions and classes constructors."
+                );
+            }
+
+            if(function.arity() != arguments.length) {
+                throw new LoxError(
+                        rightParen, String.format(
+                                "Expected %d arguments but got %d.", function.arity(), arguments.length
+                        )
+                );
+            }
+
+            var values = new ArrayList<>(arguments.length);
+            for(var arg : arguments)
+                values.add(arg.execute(env));
+
+            // see CompiledFunction.call
+            if(tail && function instanceof CompiledFunction compiled)
+                return new CompiledFunction.TailCall(compiled, values);
+            return function.call(values);
+        }
+    }
+
+    static final class AnonymousFun extends ExprNode {
+        private final CompiledFunction.Template template;
+
+        AnonymousFun(CompiledFunction.Template template) {
+            this.template = template;
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            return new CompiledFunction(template, env);
+        }
+    }
+
+    static final class Get extends ExprNode {
+        private ExprNode object;
+        private final Token property;
+
+        Get(ExprNode object, Token property) {
+            this.object = adopt(object);
+            this.property = property;
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            return instance(property, object.execute(env)).get(property);
+        }
+
+        @Override
+        protected void replaceChild(ExprNode child, ExprNode replacement) {
+            object = adopt(replacement);
+        }
+    }
+
+    static final class Set extends ExprNode {
+        private ExprNode object, value;
+        private final Token property;
+
+        Set(ExprNode object, Token property, ExprNode value) {
+            this.object = adopt(object);
+            this.property = property;
+            this.value = adopt(value);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            var instance = instance(property, object.execute(env));
+            instance.set(property.lexeme(), value.execute(env));
+            return null;
+        }
+
+        @Override
+        protected void replaceChild(ExprNode child, ExprNode replacement) {
+            if(object == child)
+                object = adopt(replacement);
+            else
+                value = adopt(replacement);
+        }
+    }
+
+    // The body of a function copied into a call site, used for as long
+    // as the callee is still made from the same declaration.
+    static final class Inline extends ExprNode {
+        private ExprNode body;
+        private Call call;
+        private final Scope code;
+
+        Inline(Scope code, ExprNode body, Call call) {
+            this.code = code;
+            this.body = adopt(body);
+            this.call = adopt(call);
+        }
+
+        private boolean inlined(Object callee) {
+            return callee instanceof LoxMethod method && method.code() == code;
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            var callee = call.callee.execute(env);
+            return inlined(callee) ? body.execute(env) : call.call(callee, env);
+        }
+
+        @Override
+        public double executeDouble(Environment env) throws UnexpectedResult {
+            var callee = call.callee.execute(env);
+            if(inlined(callee))
+                return body.executeDouble(env);
+
+            var value = call.call(callee, env);
+            if(value instanceof Double nr)
+                return nr;
+            throw new UnexpectedResult(value);
+        }
+
+        @Override
+        protected void replaceChild(ExprNode child, ExprNode replacement) {
+            if(body == child)
+                body = adopt(replacement);
+            else
+                call = adopt((Call) replacement);
+        }
+    }
+
+    static final class Super extends ExprNode {
+        private final Token keyword, method;
+        private final int depth;
+
+        Super(Token keyword, Token method, int depth) {
+            this.keyword = keyword;
+            this.method = method;
+            this.depth = depth;
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            // 'this' is always one scope below 'super'
+            var superClass = (LoxClass) env.value(keyword, depth, 0);
+            var instance = (LoxInstance) env.value(keyword, depth - 1, 0);
+            return superClass.findMethod(method.lexeme())
+                             .bind(instance);
+        }
+    }
+
+
+    static double number(Token operator, Object value) {
+        if(value instanceof Double nr)
+            return nr;
+
+        throw new LoxError(
+                operator, String.format("Expected a number but found: %s", Utils.stringify(value))
+        );
+    }
+
+    private static LoxInstance instance(Token property, Object value) {
+        if(value instanceof LoxInstance instance)
+            return instance;
+
+        throw new LoxError(
+                property, String.format(
+                        "Can only get property from class instances not from '%s'.", value
+                )
+        );
+    }
+}
@@ -0,0 +1,25 @@
+package jh.craft.interpreter.exec;
+
+// Every node knows its parent, so an expression can replace itself
+// by a version specialized for what it has seen while running (see
+// BinaryNode). Nodes must adopt their children when created and, if
+// they have expression children, know how to swap one of them.
+public abstract class Node {
+    private Node parent;
+
+    protected final <T extends Node> T adopt(T child) {
+        if(child != null)
+            ((Node) child).parent = this;
+        return child;
+    }
+
+    protected void replaceChild(ExprNode child, ExprNode replacement) {
+        throw new IllegalStateException(
+                getClass().getSimpleName() + " has no expression children."
+        );
+    }
+
+    Node parent() {
+        return parent;
+    }
+}
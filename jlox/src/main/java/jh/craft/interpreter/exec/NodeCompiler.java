@@ -0,0 +1,265 @@
+package jh.craft.interpreter.exec;
+
+import jh.craft.interpreter.ast.Binding;
+import jh.craft.interpreter.ast.Expr;
+import jh.craft.interpreter.ast.Scope;
+import jh.craft.interpreter.ast.Stmt;
+import jh.craft.interpreter.core.GlobalTable;
+import jh.craft.interpreter.scanner.Token;
+import jh.craft.interpreter.utils.OutputBuffer;
+
+import java.util.List;
+
+// Turns statements already checked by the LoxStaticAnalyst into
+// a tree of ExprNodes and StmtNodes. Each AST node is visited only
+// once here, no matter how many times its code ends up running.
+public class NodeCompiler implements Expr.Visitor<ExprNode>, Stmt.Visitor<StmtNode> {
+
+    private final GlobalTable globals;
+    private final OutputBuffer out;
+
+    public NodeCompiler(GlobalTable globals, OutputBuffer out) {
+        this.globals = globals;
+        this.out = out;
+    }
+
+    public StmtNode[] compile(List<Stmt> statements) {
+        var nodes = new StmtNode[statements.size()];
+        for(var i = 0; i < nodes.length; i++)
+            nodes[i] = compile(statements.get(i));
+        return nodes;
+    }
+
+    private StmtNode compile(Stmt statement) {
+        return statement.accept(this);
+    }
+
+    private ExprNode compile(Expr expression) {
+        return expression.accept(this);
+    }
+
+    @Override
+    public ExprNode visitBinary(Expr.Binary binary) {
+        var left = compile(binary.left());
+        var right = compile(binary.right());
+        var op = binary.operator();
+
+        // the others pick their version the first time they run
+        return switch (op.type()) {
+            case EQUAL_EQUAL -> new BinaryNode.Equal(left, op, right);
+            case BANG_EQUAL -> new BinaryNode.NotEqual(left, op, right);
+            default -> new BinaryNode.Uninitialized(left, op, right);
+        };
+    }
+
+    @Override
+    public ExprNode visitLiteral(Expr.Literal literal) {
+        return new ExprNode.Literal(literal.value());
+    }
+
+    @Override
+    public ExprNode visitGrouping(Expr.Grouping grouping) {
+        return compile(grouping.expression());
+    }
+
+    @Override
+    public ExprNode visitUnary(Expr.Unary unary) {
+        var op = unary.operator();
+        var expression = compile(unary.expression());
+        return switch (op.type()) {
+            case BANG -> new ExprNode.Not(expression);
+            case MINUS -> new ExprNode.Negate(op, expression);
+            default -> {
+                throw new RuntimeException("Unreachable");
+            }
+        };
+    }
+
+    @Override
+    public ExprNode visitVariable(Expr.Variable variable) {
+        return read(variable.name(), variable.binding());
+    }
+
+    @Override
+    public ExprNode visitAssign(Expr.Assign assign) {
+        var name = assign.name();
+        var binding = assign.binding();
+        var value = compile(assign.value());
+
+        if(binding.isGlobal())
+            return new ExprNode.GlobalAssign(name, value, globals, globals.indexOf(name.lexeme()));
+        return new ExprNode.LocalAssign(value, binding.depth, binding.slot);
+    }
+
+    @Override
+    public ExprNode visitLogical(Expr.Logical logical) {
+        var left = compile(logical.left());
+        var right = compile(logical.right());
+        return switch (logical.operator().type()) {
+            case AND -> new ExprNode.And(left, right);
+            case OR -> new ExprNode.Or(left, right);
+            default -> {
+                throw new RuntimeException("Unreachable");
+            }
+        };
+    }
+
+    @Override
+    public ExprNode visitCall(Expr.Call call) {
+        var arguments = call.arguments();
+        var args = new ExprNode[arguments.size()];
+        for(var i = 0; i < args.length; i++)
+            args[i] = compile(arguments.get(i));
+
+        return new ExprNode.Call(
+                compile(call.callee()), args, call.rightParen(), call.position().tail
+        );
+    }
+
+    @Override
+    public ExprNode visitAnonymousFun(Expr.AnonymousFun anonymousFun) {
+        return new ExprNode.AnonymousFun(template(
+                null, anonymousFun.parameters(), anonymousFun.body(), anonymousFun.scope()
+        ));
+    }
+
+    @Override
+    public ExprNode visitGet(Expr.Get get) {
+        return new ExprNode.Get(
+                compile(get.expression()), get.property()
+        );
+    }
+
+    @Override
+    public ExprNode visitSet(Expr.Set set) {
+        return new ExprNode.Set(
+                compile(set.expression()), set.property(), compile(set.value())
+        );
+    }
+
+    @Override
+    public ExprNode visitThisExpr(Expr.ThisExpr thisExpr) {
+        return read(thisExpr.keyword(), thisExpr.binding());
+    }
+
+    @Override
+    public ExprNode visitSuperExpr(Expr.SuperExpr superExpr) {
+        return new ExprNode.Super(
+                superExpr.keyword(), superExpr.identifier(), superExpr.binding().depth
+        );
+    }
+
+    @Override
+    public ExprNode visitInline(Expr.Inline inline) {
+        var call = inline.call();
+        return new ExprNode.Inline(
+                inline.code(), compile(inline.body()), (ExprNode.Call) compile(call)
+        );
+    }
+
+    @Override
+    public StmtNode visitExpression(Stmt.Expression expression) {
+        return new StmtNode.Expression(compile(expression.expression()));
+    }
+
+    @Override
+    public StmtNode visitPrint(Stmt.Print print) {
+        return new StmtNode.Print(out, compile(print.expression()));
+    }
+
+    @Override
+    public StmtNode visitVar(Stmt.Var var) {
+        var initializer = var.initializer();
+        var binding = var.binding();
+        return new StmtNode.Var(
+                globalsFor(binding), slotOf(var.name(), binding),
+                initializer == null ? null : compile(initializer)
+        );
+    }
+
+    @Override
+    public StmtNode visitBlock(Stmt.Block block) {
+        return new StmtNode.Block(
+                block.scope().size, compile(block.body())
+        );
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.IfStmt ifStmt) {
+        var elseStmt = ifStmt.elseStmt();
+        return new StmtNode.If(
+                compile(ifStmt.condition()),
+                compile(ifStmt.body()),
+                elseStmt == null ? null : compile(elseStmt)
+        );
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.WhileStmt whileStmt) {
+        return new StmtNode.While(
+                compile(whileStmt.condition()), compile(whileStmt.body())
+        );
+    }
+
+    @Override
+    public StmtNode visitFunctionDecl(Stmt.FunctionDecl functionDecl) {
+        var binding = functionDecl.binding();
+        return new StmtNode.FunctionDecl(
+                globalsFor(binding), slotOf(functionDecl.name(), binding), template(functionDecl)
+        );
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Stmt.ReturnStmt returnStmt) {
+        var value = returnStmt.value();
+        return new StmtNode.Return(
+                value == null ? null : compile(value)
+        );
+    }
+
+    @Override
+    public StmtNode visitClassDecl(Stmt.ClassDecl classDecl) {
+        var declarations = classDecl.methodsDecls();
+        var methods = new CompiledFunction.Template[declarations.size()];
+        for(var i = 0; i < methods.length; i++)
+            methods[i] = template(declarations.get(i));
+
+        var superClass = classDecl.superClass();
+        var binding = classDecl.binding();
+        var name = classDecl.name();
+
+        return new StmtNode.ClassDecl(
+                globalsFor(binding), slotOf(name, binding), name.lexeme(),
+                superClass == null ? null : compile(superClass),
+                superClass == null ? null : superClass.name(),
+                methods
+        );
+    }
+
+    private ExprNode read(Token name, Binding binding) {
+        if(binding.isGlobal())
+            return new ExprNode.GlobalRead(name, globals, globals.indexOf(name.lexeme()));
+        return new ExprNode.LocalRead(name, binding.depth, binding.slot);
+    }
+
+    private CompiledFunction.Template template(Stmt.FunctionDecl function) {
+        return template(
+                function.name().lexeme(), function.parameters(), function.body(), function.scope()
+        );
+    }
+
+    private CompiledFunction.Template template(String name, List<Token> params, List<Stmt> body, Scope scope) {
+        return new CompiledFunction.Template(
+                name, params.size(), scope.size, compile(body), scope
+        );
+    }
+
+    // declarations either go to the global table or to a slot
+    private GlobalTable globalsFor(Binding binding) {
+        return binding.isGlobal() ? globals : null;
+    }
+
+    private int slotOf(Token name, Binding binding) {
+        return binding.isGlobal() ? globals.indexOf(name.lexeme()) : binding.slot;
+    }
+}
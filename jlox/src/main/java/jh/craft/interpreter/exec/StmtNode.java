@@ -0,0 +1,257 @@
+package jh.craft.interpreter.exec;
+
+import jh.craft.interpreter.core.Environment;
+import jh.craft.interpreter.core.GlobalTable;
+import jh.craft.interpreter.core.LoxClass;
+import jh.craft.interpreter.scanner.Token;
+import jh.craft.interpreter.types.LoxError;
+import jh.craft.interpreter.utils.OutputBuffer;
+import jh.craft.interpreter.utils.Utils;
+
+import java.util.ArrayList;
+
+// A statement already turned into something that can be executed.
+// Executing a statement returns NORMAL, unless a 'return' was reached,
+// in which case it returns the value being returned. This way returns
+// travel up to the function call without throwing anything.
+public abstract class StmtNode extends Node {
+    static final Object NORMAL = new Object();
+
+    public abstract Object execute(Environment env);
+
+    static Object executeAll(StmtNode[] body, Environment env) {
+        for(var stmt : body) {
+            var result = stmt.execute(env);
+            if(result != NORMAL)
+                return result;
+        }
+        return NORMAL;
+    }
+
+
+    static final class Expression extends StmtNode {
+        private ExprNode expression;
+
+        Expression(ExprNode expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            expression.execute(env);
+            return NORMAL;
+        }
+
+        @Override
+        protected void replaceChild(ExprNode child, ExprNode replacement) {
+            expression = adopt(replacement);
+        }
+    }
+
+    static final class Print extends StmtNode {
+        private final OutputBuffer out;
+        private ExprNode expression;
+
+        Print(OutputBuffer out, ExprNode expression) {
+            this.out = out;
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        protected void replaceChild(ExprNode child, ExprNode replacement) {
+            expression = adopt(replacement);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            out.println(expression.execute(env));
+            return NORMAL;
+        }
+    }
+
+    static final class Block extends StmtNode {
+        private final int size;
+        private final StmtNode[] body;
+
+        Block(int size, StmtNode[] body) {
+            this.size = size;
+            this.body = body;
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            return executeAll(body, new Environment(env, size));
+        }
+    }
+
+    static final class If extends StmtNode {
+        private ExprNode condition;
+        private final StmtNode body, elseStmt;
+
+        If(ExprNode condition, StmtNode body, StmtNode elseStmt) {
+            this.condition = adopt(condition);
+            this.body = body;
+            this.elseStmt = elseStmt;
+        }
+
+        @Override
+        protected void replaceChild(ExprNode child, ExprNode replacement) {
+            condition = adopt(replacement);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            if(Utils.isTruly(condition.execute(env)))
+                return body.execute(env);
+            if(elseStmt != null)
+                return elseStmt.execute(env);
+            return NORMAL;
+        }
+    }
+
+    static final class While extends StmtNode {
+        private ExprNode condition;
+        private final StmtNode body;
+
+        While(ExprNode condition, StmtNode body) {
+            this.condition = adopt(condition);
+            this.body = body;
+        }
+
+        @Override
+        protected void replaceChild(ExprNode child, ExprNode replacement) {
+            condition = adopt(replacement);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            while(Utils.isTruly(condition.execute(env))) {
+                var result = body.execute(env);
+                if(result != NORMAL)
+                    return result;
+            }
+            return NORMAL;
+        }
+    }
+
+    static final class Return extends StmtNode {
+        private ExprNode value;
+
+        Return(ExprNode value) {
+            this.value = adopt(value);
+        }
+
+        @Override
+        protected void replaceChild(ExprNode child, ExprNode replacement) {
+            value = adopt(replacement);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            return value == null ? null : value.execute(env);
+        }
+    }
+
+    // declarations
+
+    // Something that defines a name either in a slot of the current
+    // environment or, when globals is not null, in the global table.
+    abstract static class Declaration extends StmtNode {
+        private final GlobalTable globals;
+        private final int slot;
+
+        Declaration(GlobalTable globals, int slot) {
+            this.globals = globals;
+            this.slot = slot;
+        }
+
+        protected void define(Environment env, Object value) {
+            if(globals != null)
+                globals.define(slot, value);
+            else
+                env.define(slot, value);
+        }
+    }
+
+    static final class Var extends Declaration {
+        private ExprNode initializer;
+
+        Var(GlobalTable globals, int slot, ExprNode initializer) {
+            super(globals, slot);
+            this.initializer = adopt(initializer);
+        }
+
+        @Override
+        protected void replaceChild(ExprNode child, ExprNode replacement) {
+            initializer = adopt(replacement);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            define(env, initializer == null ? Environment.NO_VALUE : initializer.execute(env));
+            return NORMAL;
+        }
+    }
+
+    static final class FunctionDecl extends Declaration {
+        private final CompiledFunction.Template template;
+
+        FunctionDecl(GlobalTable globals, int slot, CompiledFunction.Template template) {
+            super(globals, slot);
+            this.template = template;
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            define(env, new CompiledFunction(template, env));
+            return NORMAL;
+        }
+    }
+
+    static final class ClassDecl extends Declaration {
+        private final String name;
+        private ExprNode superClass;
+        private final Token superClassName;
+        private final CompiledFunction.Template[] methods;
+
+        ClassDecl(GlobalTable globals, int slot, String name, ExprNode superClass,
+              Token superClassName, CompiledFunction.Template[] methods) {
+            super(globals, slot);
+            this.name = name;
+            this.superClass = adopt(superClass);
+            this.superClassName = superClassName;
+            this.methods = methods;
+        }
+
+        @Override
+        protected void replaceChild(ExprNode child, ExprNode replacement) {
+            superClass = adopt(replacement);
+        }
+
+        @Override
+        public Object execute(Environment env) {
+            var methodsEnv = env;
+            LoxClass parent = null;
+
+            if(superClass != null) {
+                var value = superClass.execute(env);
+                if(!(value instanceof LoxClass klass)) {
+                    throw new LoxError(
+                            superClassName, "Super class should be a class."
+                    );
+                }
+
+                parent = klass;
+                methodsEnv = new Environment(env, 1);
+                methodsEnv.define(0, parent);
+            }
+
+            var functions = new ArrayList<CompiledFunction>(methods.length);
+            for(var method : methods)
+                functions.add(new CompiledFunction(method, methodsEnv));
+
+            define(env, new LoxClass(name, parent, functions));
+            return NORMAL;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package jh.craft.interpreter.exec;
+
+// Thrown when a node is asked for a specific kind of value (like with
+// ExprNode.executeDouble) but ended up producing something else. The
+// value is kept, so the caller can carry on with the generic path.
+final class UnexpectedResult extends Exception {
+    final Object value;
+
+    UnexpectedResult(Object value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+}
@@ -0,0 +1,188 @@
+package jh.craft.interpreter.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+// Writes just enough of the class file format for the code the
+// JvmCompiler generates: a constant pool, no fields and a few methods.
+// Classes are emitted as version 49 so no stack map frames are needed,
+// the verifier infers the types by itself.
+final class ClassBuilder {
+    private static final int VERSION = 49;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL  = 0x0010;
+    static final int ACC_SUPER  = 0x0020;
+
+    private final ByteArrayOutputStream pool;
+    private final Map<String, Integer> entries;
+    private int poolSize;
+
+    private final ByteArrayOutputStream methods;
+    private int methodsCount;
+
+    private final String name;
+    private final String superName;
+
+    ClassBuilder(String name, String superName){
+        this.pool = new ByteArrayOutputStream();
+        this.entries = new HashMap<>();
+        this.poolSize = 1;
+
+        this.methods = new ByteArrayOutputStream();
+        this.methodsCount = 0;
+
+        this.name = name;
+        this.superName = superName;
+    }
+
+    int utf8(String value){
+        var key = "U" + value;
+        var index = entries.get(key);
+        if( index != null ) return index;
+
+        // only used for names and descriptors, which are plain ascii
+        var bytes = value.getBytes(StandardCharsets.US_ASCII);
+        pool.write(1);
+        u2(pool, bytes.length);
+        pool.writeBytes(bytes);
+        return entry(key, 1);
+    }
+
+    int classRef(String internalName){
+        return reference("C" + internalName, 7, utf8(internalName));
+    }
+
+    int string(String value){
+        return reference("S" + value, 8, utf8(value));
+    }
+
+    int doubleValue(double value){
+        var bits = Double.doubleToRawLongBits(value);
+        var key = "D" + bits;
+        var index = entries.get(key);
+        if( index != null ) return index;
+
+        pool.write(6);
+        u4(pool, (int) (bits >>> 32));
+        u4(pool, (int) bits);
+        // doubles take two entries of the pool
+        return entry(key, 2);
+    }
+
+    int integer(int value){
+        var key = "I" + value;
+        var index = entries.get(key);
+        if( index != null ) return index;
+
+        pool.write(3);
+        u4(pool, value);
+        return entry(key, 1);
+    }
+
+    int field(String owner, String name, String descriptor){
+        return member(9, owner, name, descriptor);
+    }
+
+    int method(String owner, String name, String descriptor){
+        return member(10, owner, name, descriptor);
+    }
+
+    int interfaceMethod(String owner, String name, String descriptor){
+        return member(11, owner, name, descriptor);
+    }
+
+    void addMethod(int access, String name, String descriptor, CodeBuilder code){
+        var body = code.toBytes();
+
+        u2(methods, access);
+        u2(methods, utf8(name));
+        u2(methods, utf8(descriptor));
+        // a single 'Code' attribute
+        u2(methods, 1);
+        u2(methods, utf8("Code"));
+        u4(methods, 12 + body.length);
+        u2(methods, code.maxStack());
+        u2(methods, code.maxLocals());
+        u4(methods, body.length);
+        methods.writeBytes(body);
+        // no exception table and no attributes
+        u2(methods, 0);
+        u2(methods, 0);
+
+        methodsCount++;
+    }
+
+    byte[] toBytes(){
+        var thisIndex = classRef(name);
+        var superIndex = classRef(superName);
+
+        var out = new ByteArrayOutputStream();
+        u4(out, 0xCAFEBABE);
+        u2(out, 0);
+        u2(out, VERSION);
+
+        u2(out, poolSize);
+        out.writeBytes(pool.toByteArray());
+
+        u2(out, ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        u2(out, thisIndex);
+        u2(out, superIndex);
+        // no interfaces and no fields
+        u2(out, 0);
+        u2(out, 0);
+
+        u2(out, methodsCount);
+        out.writeBytes(methods.toByteArray());
+        // no class attributes
+        u2(out, 0);
+        return out.toByteArray();
+    }
+
+    private int member(int tag, String owner, String name, String descriptor){
+        var key = tag + owner + "." + name + descriptor;
+        var index = entries.get(key);
+        if( index != null ) return index;
+
+        var ownerIndex = classRef(owner);
+        var nameAndType = reference(
+                "N" + name + descriptor, 12, utf8(name), utf8(descriptor)
+        );
+        pool.write(tag);
+        u2(pool, ownerIndex);
+        u2(pool, nameAndType);
+        return entry(key, 1);
+    }
+
+    private int reference(String key, int tag, int... indexes){
+        var index = entries.get(key);
+        if( index != null ) return index;
+
+        pool.write(tag);
+        for( var i : indexes )
+            u2(pool, i);
+        return entry(key, 1);
+    }
+
+    private int entry(String key, int size){
+        var index = poolSize;
+        if( index + size > 0xFFFF )
+            throw new Unsupported("constant pool too large");
+
+        entries.put(key, index);
+        poolSize += size;
+        return index;
+    }
+
+    static void u2(ByteArrayOutputStream out, int value){
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    static void u4(ByteArrayOutputStream out, int value){
+        u2(out, value >>> 16);
+        u2(out, value);
+    }
+}
@@ -0,0 +1,244 @@
+package jh.craft.interpreter.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Assembles the body of a single method. It keeps track of the depth of
+// the operand stack and of the locals used so max_stack and max_locals
+// come out right, and patches the jumps once their labels are placed.
+final class CodeBuilder {
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int ICONST_1 = 0x04;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int ILOAD = 0x15;
+    static final int DLOAD = 0x18;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int AASTORE = 0x53;
+    static final int ISTORE = 0x36;
+    static final int DSTORE = 0x39;
+    static final int ASTORE = 0x3A;
+    static final int POP = 0x57;
+    static final int POP2 = 0x58;
+    static final int DUP = 0x59;
+    static final int IADD = 0x60;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6B;
+    static final int DDIV = 0x6F;
+    static final int DNEG = 0x77;
+    static final int IXOR = 0x82;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9A;
+    static final int IFLT = 0x9B;
+    static final int IFGE = 0x9C;
+    static final int IFGT = 0x9D;
+    static final int IFLE = 0x9E;
+    static final int GOTO = 0xA7;
+    static final int ARETURN = 0xB0;
+    static final int RETURN = 0xB1;
+    static final int GETSTATIC = 0xB2;
+    static final int GETFIELD = 0xB4;
+    static final int INVOKEVIRTUAL = 0xB6;
+    static final int INVOKESPECIAL = 0xB7;
+    static final int INVOKESTATIC = 0xB8;
+    static final int INVOKEINTERFACE = 0xB9;
+    static final int NEW = 0xBB;
+    static final int ANEWARRAY = 0xBD;
+    static final int CHECKCAST = 0xC0;
+
+    static final class Label {
+        private int offset = -1;
+        private int stack = -1;
+        private final List<Integer> jumps = new ArrayList<>();
+    }
+
+    private final ClassBuilder owner;
+    private final ByteArrayOutputStream code;
+    private int stack;
+    private int maxStack;
+    private int locals;
+    private boolean reachable;
+
+    private final List<Label> labels;
+
+    CodeBuilder(ClassBuilder owner, int parameters){
+        this.owner = owner;
+        this.code = new ByteArrayOutputStream();
+        this.stack = 0;
+        this.maxStack = 0;
+        this.locals = parameters;
+        this.reachable = true;
+        this.labels = new ArrayList<>();
+    }
+
+    int maxStack(){
+        return maxStack;
+    }
+
+    int maxLocals(){
+        return locals;
+    }
+
+    int newLocal(){
+        // every local gets two slots so it can hold a double
+        var index = locals;
+        locals += 2;
+        if( locals > 0xFF )
+            throw new Unsupported("too many locals");
+        return index;
+    }
+
+    void op(int opcode, int stackDelta){
+        code.write(opcode);
+        adjust(stackDelta);
+
+        if( opcode == ARETURN || opcode == RETURN || opcode == GOTO ){
+            reachable = false;
+            stack = 0;
+        }
+    }
+
+    void pushInt(int value){
+        if( value >= 0 && value <= 5 ){
+            op(ICONST_0 + value, 1);
+        } else if( value <= Byte.MAX_VALUE ){
+            op(BIPUSH, 1);
+            code.write(value);
+        } else if( value <= Short.MAX_VALUE ){
+            op(SIPUSH, 1);
+            ClassBuilder.u2(code, value);
+        } else {
+            op(LDC_W, 1);
+            ClassBuilder.u2(code, owner.integer(value));
+        }
+    }
+
+    void pushDouble(double value){
+        op(LDC2_W, 2);
+        ClassBuilder.u2(code, owner.doubleValue(value));
+    }
+
+    void local(int opcode, int index){
+        var delta = switch (opcode){
+            case ILOAD, ALOAD -> 1;
+            case DLOAD -> 2;
+            case ISTORE, ASTORE -> -1;
+            case DSTORE -> -2;
+            default -> throw new IllegalArgumentException("Not a local instruction.");
+        };
+        op(opcode, delta);
+        code.write(index);
+    }
+
+    void type(int opcode, String internalName){
+        op(opcode, opcode == NEW ? 1 : 0);
+        ClassBuilder.u2(code, owner.classRef(internalName));
+    }
+
+    void getField(String owner, String name, String descriptor){
+        op(GETFIELD, slots(descriptor.charAt(0)) - 1);
+        ClassBuilder.u2(code, this.owner.field(owner, name, descriptor));
+    }
+
+    void getStatic(String owner, String name, String descriptor){
+        op(GETSTATIC, slots(descriptor.charAt(0)));
+        ClassBuilder.u2(code, this.owner.field(owner, name, descriptor));
+    }
+
+    void invoke(int opcode, String owner, String name, String descriptor){
+        var delta = -argumentSlots(descriptor);
+        if( opcode != INVOKESTATIC )
+            delta--;
+
+        var result = descriptor.charAt(descriptor.indexOf(')') + 1);
+        if( result != 'V' )
+            delta += slots(result);
+
+        op(opcode, delta);
+        if( opcode == INVOKEINTERFACE ){
+            ClassBuilder.u2(code, this.owner.interfaceMethod(owner, name, descriptor));
+            code.write(argumentSlots(descriptor) + 1);
+            code.write(0);
+        } else {
+            ClassBuilder.u2(code, this.owner.method(owner, name, descriptor));
+        }
+    }
+
+    void jump(int opcode, Label label){
+        // conditional jumps pop the value they test
+        if( opcode != GOTO )
+            adjust(-1);
+        if( label.stack < 0 )
+            label.stack = stack;
+
+        label.jumps.add(code.size());
+        op(opcode, 0);
+        ClassBuilder.u2(code, 0);
+        if( !labels.contains(label) )
+            labels.add(label);
+    }
+
+    Label label(){
+        return new Label();
+    }
+
+    void place(Label label){
+        label.offset = code.size();
+        if( !reachable && label.stack >= 0 )
+            stack = label.stack;
+        reachable = true;
+        if( !labels.contains(label) )
+            labels.add(label);
+    }
+
+    byte[] toBytes(){
+        var bytes = code.toByteArray();
+        if( bytes.length > 0xFFFF )
+            throw new Unsupported("method too large");
+
+        for( var label : labels ){
+            for( var start : label.jumps ){
+                var offset = label.offset - start;
+                if( offset < Short.MIN_VALUE || offset > Short.MAX_VALUE )
+                    throw new Unsupported("jump too far");
+
+                bytes[start + 1] = (byte) (offset >> 8);
+                bytes[start + 2] = (byte) offset;
+            }
+        }
+        return bytes;
+    }
+
+    private void adjust(int delta){
+        stack += delta;
+        if( stack > maxStack )
+            maxStack = stack;
+    }
+
+    private static int argumentSlots(String descriptor){
+        var count = 0;
+        var i = 1;
+        while( descriptor.charAt(i) != ')' ){
+            var c = descriptor.charAt(i);
+            count += slots(c);
+
+            while( descriptor.charAt(i) == '[' ) i++;
+            if( descriptor.charAt(i) == 'L' )
+                i = descriptor.indexOf(';', i);
+            i++;
+        }
+        return count;
+    }
+
+    private static int slots(char type){
+        return type == 'D' || type == 'J' ? 2 : 1;
+    }
+}
@@ -0,0 +1,21 @@
+package jh.craft.interpreter.jit;
+
+// Base class of the hidden classes generated by the JvmCompiler, each
+// one holds the body of a single Lox function in its run method.
+public abstract class CompiledCode {
+    // what the code of a loop returns when it ends without a 'return'
+    public static final Object NORMAL = new Object();
+
+    // tokens, strings and the globals used by the generated code
+    protected final Object[] constants;
+    // slots of the frame the code expects to hold numbers
+    int[] guards;
+
+    protected CompiledCode(Object[] constants){
+        this.constants = constants;
+    }
+
+    // The arguments are at the start of the frame of the call. The
+    // code of a loop gets the frame of the function running it.
+    public abstract Object run(Object[] captures, Object[] frame, int base);
+}
@@ -0,0 +1,126 @@
+package jh.craft.interpreter.jit;
+
+import jh.craft.interpreter.ast.Stmt;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Counts how hot a function is (calls and loop iterations) and what
+// its parameters hold while it runs in the Interpreter. Once hot enough
+// the function is compiled, and the compiled code is used for as long as
+// the parameters it assumed to be numbers keep being numbers. When they
+// don't, the code is thrown away (deoptimized) and the function goes back
+// to the Interpreter until it gets hot again.
+//
+// A call can stay in a loop for long after its function got hot, so
+// loops are also compiled on their own once they iterate enough. The
+// Interpreter jumps into that code at the end of an iteration and it
+// runs the rest of the loop, see JvmCompiler for what it assumes.
+public final class FunctionProfile {
+    private static final int MAX_DEOPTIMIZATIONS = 4;
+
+    private static final class Loop {
+        int iterations;
+        int deoptimizations;
+        boolean interpretOnly;
+        CompiledCode code;
+    }
+
+    private final Jit jit;
+    private final Stmt.FunctionDecl declaration;
+    // parameters that only held numbers so far
+    private final boolean[] numbers;
+
+    private int hotness;
+    private int deoptimizations;
+    // set when the function can't be compiled or deoptimized too often
+    private boolean interpretOnly;
+    private CompiledCode code;
+    private final Map<Stmt.WhileStmt, Loop> loops;
+
+    FunctionProfile(Jit jit, Stmt.FunctionDecl declaration){
+        this.jit = jit;
+        this.declaration = declaration;
+        this.numbers = new boolean[declaration.parameters().size()];
+        this.loops = new IdentityHashMap<>();
+        Arrays.fill(numbers, true);
+    }
+
+    // The code to run for the arguments at the start of the frame or
+    // null to interpret them. Called once per call, tail calls included.
+    public CompiledCode enter(Object[] frame, int base){
+        if( code != null )
+            return compiled(frame, base);
+
+        if( interpretOnly )
+            return null;
+
+        for(var i = 0; i < numbers.length; i++)
+            if( numbers[i] && !(frame[base + i] instanceof Double) )
+                numbers[i] = false;
+
+        if( ++hotness < Jit.COMPILE_THRESHOLD )
+            return null;
+
+        this.code = jit.compile(declaration, numbers);
+        if( this.code == null )
+            interpretOnly = true;
+        return this.code;
+    }
+
+    // the code if it's compiled and valid for the arguments, not counted as a call
+    public CompiledCode compiled(Object[] frame, int base){
+        var code = this.code;
+        if( code == null )
+            return null;
+
+        for( var i : code.guards ){
+            if( !(frame[base + i] instanceof Double) ){
+                deoptimize(i);
+                return null;
+            }
+        }
+        return code;
+    }
+
+    // Called at the end of every iteration of a loop of the function,
+    // returns the code running the rest of it or null to keep interpreting.
+    public CompiledCode backEdge(Stmt.WhileStmt whileStmt, Object[] frame, int base){
+        hotness++;
+
+        var loop = loops.get(whileStmt);
+        if( loop == null )
+            loops.put(whileStmt, loop = new Loop());
+
+        if( loop.code != null ){
+            for( var slot : loop.code.guards ){
+                if( !(frame[base + slot] instanceof Double) ){
+                    // numbered again from the locals it sees next time
+                    loop.code = null;
+                    loop.iterations = 0;
+                    if( ++loop.deoptimizations == MAX_DEOPTIMIZATIONS )
+                        loop.interpretOnly = true;
+                    return null;
+                }
+            }
+            return loop.code;
+        }
+
+        if( loop.interpretOnly || ++loop.iterations < Jit.COMPILE_THRESHOLD )
+            return null;
+
+        loop.code = jit.compile(declaration, whileStmt, frame, base);
+        if( loop.code == null )
+            loop.interpretOnly = true;
+        return loop.code;
+    }
+
+    private void deoptimize(int parameter){
+        code = null;
+        numbers[parameter] = false;
+        hotness = 0;
+        if( ++deoptimizations == MAX_DEOPTIMIZATIONS )
+            interpretOnly = true;
+    }
+}
@@ -0,0 +1,61 @@
+package jh.craft.interpreter.jit;
+
+import jh.craft.interpreter.ast.Stmt;
+import jh.craft.interpreter.core.GlobalTable;
+import jh.craft.interpreter.utils.OutputBuffer;
+
+import java.lang.invoke.MethodHandles;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Second tier of the Interpreter: hot functions are translated to JVM
+// bytecode and loaded as hidden classes, so HotSpot compiles the Lox code
+// itself. Every function starts in the Interpreter, see FunctionProfile.
+public final class Jit {
+    // calls plus loop iterations before a function is compiled
+    static final int COMPILE_THRESHOLD = 1000;
+
+    private final GlobalTable globals;
+    private final OutputBuffer out;
+    private final Map<Object, FunctionProfile> profiles;
+    private final MethodHandles.Lookup lookup;
+
+    public Jit(GlobalTable globals, OutputBuffer out){
+        this.globals = globals;
+        this.out = out;
+        this.profiles = new IdentityHashMap<>();
+        this.lookup = MethodHandles.lookup();
+    }
+
+    // every closure created by the same declaration shares a profile
+    public FunctionProfile profile(Object declarationSite, Stmt.FunctionDecl declaration){
+        return profiles.computeIfAbsent(
+                declarationSite, site -> new FunctionProfile(this, declaration)
+        );
+    }
+
+    // null when the function can't be compiled
+    CompiledCode compile(Stmt.FunctionDecl declaration, boolean[] numbers){
+        return load(new JvmCompiler(globals, out, declaration, numbers));
+    }
+
+    // a loop of the function, for the locals it has in the frame now
+    CompiledCode compile(Stmt.FunctionDecl declaration, Stmt.WhileStmt loop, Object[] frame, int base){
+        return load(new JvmCompiler(globals, out, declaration, loop, frame, base));
+    }
+
+    private CompiledCode load(JvmCompiler compiler){
+        try{
+            var result = compiler.compile();
+            var hidden = lookup.defineHiddenClass(result.bytes(), true)
+                               .lookupClass();
+
+            var code = (CompiledCode) hidden.getConstructor(Object[].class)
+                                            .newInstance((Object) result.constants());
+            code.guards = result.guards();
+            return code;
+        }catch (Unsupported | ReflectiveOperationException | LinkageError e){
+            return null;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package jh.craft.interpreter.jit;
+
+import jh.craft.interpreter.ast.PropertyCache;
+import jh.craft.interpreter.core.Cell;
+import jh.craft.interpreter.core.Environment;
+import jh.craft.interpreter.core.LoxFunction;
+import jh.craft.interpreter.core.LoxInstance;
+import jh.craft.interpreter.core.LoxMethod;
+import jh.craft.interpreter.scanner.Token;
+import jh.craft.interpreter.types.LoxCallable;
+import jh.craft.interpreter.types.LoxError;
+import jh.craft.interpreter.utils.Utils;
+
+import java.util.Arrays;
+
+// The slow paths of the compiled code. They are kept out of the
+// generated bytecode and must raise the same errors the Interpreter does.
+final class JitSupport {
+    private JitSupport(){}
+
+    static double number(Object value, Token operator){
+        if( value instanceof Double nr )
+            return nr;
+
+        throw new LoxError(
+                operator, String.format("Expected a number but found: %s", Utils.stringify(value))
+        );
+    }
+
+    static Object add(Object left, Object right, Token operator){
+        if( left instanceof Double leftNr && right instanceof Double rightNr )
+            return leftNr + rightNr;
+
+        if( Utils.isString(left) || Utils.isString(right) )
+            return Utils.concat(left, right);
+
+        throw new LoxError(operator, String.format(
+                "Expected either number or at least one string operand but got: %s and %s",
+                Utils.stringify(left), Utils.stringify(right)
+        ));
+    }
+
+    static LoxCallable callee(Object callee, Token paren, int arguments){
+        if( !(callee instanceof LoxCallable function) ){
+            throw new LoxError(
+                    paren, "Can only call functions and classes constructors."
+            );
+        }
+
+        if( function.arity() != arguments ){
+            throw new LoxError(
+                    paren, String.format(
+                            "Expected %d arguments but got %d.", function.arity(), arguments
+                    )
+            );
+        }
+        return function;
+    }
+
+    static Object call(LoxCallable callee, Object[] arguments){
+        if( callee instanceof LoxFunction function )
+            return function.call(arguments);
+        return callee.call(Arrays.asList(arguments));
+    }
+
+    // Lox functions called in tail position don't grow the java stack,
+    // the compiled code returns the pending call to the one running it.
+    static Object tailCall(LoxCallable callee, Object[] arguments){
+        if( callee instanceof LoxFunction function )
+            return function.tailCall(arguments);
+        return callee.call(Arrays.asList(arguments));
+    }
+
+    // Method calls don't bind the method, the receiver is passed along.
+    static Object invoke(LoxInstance receiver, LoxCallable callee, Object[] arguments){
+        if( callee instanceof LoxFunction function )
+            return function.invoke(receiver, arguments);
+        return callee.call(Arrays.asList(arguments));
+    }
+
+    static Object tailInvoke(LoxInstance receiver, LoxCallable callee, Object[] arguments){
+        if( callee instanceof LoxFunction function )
+            return function.tailInvoke(receiver, arguments);
+        return callee.call(Arrays.asList(arguments));
+    }
+
+    // whether an inlined body can be used instead of calling the callee
+    static boolean inlined(Object callee, Object code){
+        return callee instanceof LoxMethod method && method.code() == code;
+    }
+
+    static Object get(Object object, Token property, PropertyCache cache){
+        return instance(object, property).get(property, cache);
+    }
+
+    static LoxInstance instance(Object object, Token property){
+        if( object instanceof LoxInstance instance )
+            return instance;
+
+        throw new LoxError(
+                property, String.format(
+                        "Can only get property from class instances not from '%s'.", object
+                )
+        );
+    }
+
+    static Object initialized(Object value, Token name){
+        if( value == Environment.NO_VALUE )
+            throw new LoxError(
+                    name, String.format("'%s' not initialized.", name.lexeme())
+            );
+        return value;
+    }
+
+    static Object captured(Object[] captures, int index, Token name){
+        return initialized(captures[index], name);
+    }
+
+    static Object cell(Object[] captures, int index, Token name){
+        return initialized(((Cell) captures[index]).value, name);
+    }
+
+    static void assignCell(Object[] captures, int index, Object value){
+        ((Cell) captures[index]).value = value;
+    }
+}
@@ -0,0 +1,911 @@
+package jh.craft.interpreter.jit;
+
+import jh.craft.interpreter.ast.Binding;
+import jh.craft.interpreter.ast.Expr;
+import jh.craft.interpreter.ast.Scope;
+import jh.craft.interpreter.ast.Stmt;
+import jh.craft.interpreter.core.GlobalTable;
+import jh.craft.interpreter.scanner.Token;
+import jh.craft.interpreter.scanner.TokenType;
+import jh.craft.interpreter.utils.OutputBuffer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static jh.craft.interpreter.jit.CodeBuilder.*;
+
+// Translates the body of a LoxFunction into the run method of a
+// CompiledCode subclass.
+//
+// Locals of the function (its parameters and the variables of its
+// blocks) become JVM locals, the ones only ever holding numbers are
+// kept as unboxed doubles. Parameters are assumed to be numbers if the
+// profile only saw numbers in them, the FunctionProfile guards that
+// on every call. Variables from enclosing functions are read from the
+// captures of the closure and globals through the GlobalTable.
+//
+// Functions declaring functions or classes, or using 'super', are not
+// compiled: they keep running in the Interpreter.
+//
+// A loop can also be compiled by itself. Its code starts by testing
+// the condition, and it gets the frame where the Interpreter keeps the
+// locals of the function. The ones the loop uses are copied into JVM
+// locals on entry and written back when the loop ends. They start as
+// numbers if they hold one when the loop is compiled, and the entry is
+// guarded like parameters are. Locals shared with closures (in a Cell)
+// are not supported there.
+final class JvmCompiler implements Stmt.Visitor<Void>, Expr.Visitor<JvmCompiler.Kind> {
+    // what the code for an expression leaves on the stack
+    enum Kind { OBJECT, DOUBLE, BOOLEAN }
+
+    record Result(byte[] bytes, Object[] constants, int[] guards) {}
+
+    private static final int MAX_PASSES = 16;
+
+    private static final String PACKAGE = "jh/craft/interpreter/jit/";
+    private static final String BASE = PACKAGE + "CompiledCode";
+    private static final String SUPPORT = PACKAGE + "JitSupport";
+
+    private static final String ENVIRONMENT = "jh/craft/interpreter/core/Environment";
+    private static final String CAPTURES_DESC = "[Ljava/lang/Object;";
+    private static final String GLOBALS = "jh/craft/interpreter/core/GlobalTable";
+    private static final String INSTANCE = "jh/craft/interpreter/core/LoxInstance";
+    private static final String PROPERTY_CACHE = "jh/craft/interpreter/ast/PropertyCache";
+    private static final String CALLABLE = "jh/craft/interpreter/types/LoxCallable";
+    private static final String TOKEN = "jh/craft/interpreter/scanner/Token";
+    private static final String UTILS = "jh/craft/interpreter/utils/Utils";
+    private static final String OUTPUT = "jh/craft/interpreter/utils/OutputBuffer";
+
+    private static final String OBJECT_DESC = "Ljava/lang/Object;";
+    private static final String TOKEN_DESC = "L" + TOKEN + ";";
+    private static final String PROPERTY_CACHE_DESC = "L" + PROPERTY_CACHE + ";";
+    private static final String RUN_DESC = "(" + CAPTURES_DESC + "[" + OBJECT_DESC + "I)" + OBJECT_DESC;
+
+    // arguments of run
+    private static final int THIS = 0;
+    private static final int CAPTURES = 1;
+    private static final int FRAME = 2;
+    private static final int FRAME_BASE = 3;
+
+    private static final class Local {
+        Kind kind;
+        final boolean maybeUninitialized;
+        // the jvm local in the current pass
+        int index;
+        int pass = -1;
+
+        Local(Kind kind, boolean maybeUninitialized){
+            this.kind = kind;
+            this.maybeUninitialized = maybeUninitialized;
+        }
+    }
+
+    private final GlobalTable globals;
+    private final OutputBuffer out;
+    private final Stmt.FunctionDecl function;
+    private final boolean[] numbers;
+    // set when only this loop of the function is compiled
+    private final Stmt.WhileStmt loop;
+    private final Object[] frame;
+    private final int base;
+    // locals of the function the loop uses, by slot in the frame
+    private final Map<Integer, Local> frameLocals;
+
+    private final Map<Scope, Local[]> locals;
+    private final List<Scope> scopes;
+    private final List<Object> constants;
+    private final Map<Object, Integer> constantIndexes;
+
+    private ClassBuilder classBuilder;
+    private CodeBuilder code;
+    private int constantsLocal;
+    private int globalsLocal;
+
+    // a pass is thrown away when a local turns out not to be a number
+    private int pass;
+    private boolean changed;
+
+    JvmCompiler(GlobalTable globals, OutputBuffer out, Stmt.FunctionDecl function, boolean[] numbers){
+        this(globals, out, function, numbers, null, null, 0);
+    }
+
+    // frame holds the locals of the function from base when the loop is entered
+    JvmCompiler(GlobalTable globals, OutputBuffer out, Stmt.FunctionDecl function,
+                Stmt.WhileStmt loop, Object[] frame, int base){
+        this(globals, out, function, null, loop, frame, base);
+    }
+
+    private JvmCompiler(GlobalTable globals, OutputBuffer out, Stmt.FunctionDecl function,
+                        boolean[] numbers, Stmt.WhileStmt loop, Object[] frame, int base){
+        this.globals = globals;
+        this.out = out;
+        this.function = function;
+        this.numbers = numbers;
+        this.loop = loop;
+        this.frame = frame;
+        this.base = base;
+
+        this.frameLocals = new TreeMap<>();
+        this.locals = new IdentityHashMap<>();
+        this.scopes = new ArrayList<>();
+        this.constants = new ArrayList<>();
+        this.constantIndexes = new HashMap<>();
+    }
+
+    Result compile(){
+        for(pass = 0; pass < MAX_PASSES; pass++){
+            changed = false;
+            var bytes = generate();
+            if( !changed )
+                return new Result(bytes, constants.toArray(), guards());
+        }
+        throw new Unsupported("types of the locals don't settle");
+    }
+
+    private byte[] generate(){
+        var name = function.name() == null ? "anonymous" : function.name().lexeme();
+        if( loop != null )
+            name += "_loop";
+        classBuilder = new ClassBuilder(
+                PACKAGE + "Compiled$" + name.replaceAll("[^A-Za-z0-9_]", "_"), BASE
+        );
+        scopes.clear();
+        constants.clear();
+        constantIndexes.clear();
+
+        constructor();
+
+        code = new CodeBuilder(classBuilder, 4);
+        code.local(ALOAD, THIS);
+        code.getField(BASE, "constants", "[" + OBJECT_DESC);
+        constantsLocal = code.newLocal();
+        code.local(ASTORE, constantsLocal);
+
+        constant(globals, GLOBALS);
+        globalsLocal = code.newLocal();
+        code.local(ASTORE, globalsLocal);
+
+        if( loop == null )
+            function();
+        else
+            loop();
+
+        classBuilder.addMethod(ClassBuilder.ACC_PUBLIC, "run", RUN_DESC, code);
+        return classBuilder.toBytes();
+    }
+
+    private void function(){
+        var scope = function.scope();
+        scopes.add(scope);
+
+        // parameters take the first slots of the function scope
+        var parameters = function.parameters().size();
+        for(var i = 0; i < parameters; i++){
+            var local = local(scope, i, numbers[i] ? Kind.DOUBLE : Kind.OBJECT, false);
+            frameSlot(i);
+            code.op(AALOAD, -1);
+            if( local.kind == Kind.DOUBLE ){
+                code.type(CHECKCAST, "java/lang/Double");
+                code.invoke(INVOKEVIRTUAL, "java/lang/Double", "doubleValue", "()D");
+            }
+            store(local, local.kind);
+        }
+
+        for( var stmt : function.body() )
+            stmt.accept(this);
+
+        code.op(ACONST_NULL, 1);
+        code.op(ARETURN, -1);
+    }
+
+    private void loop(){
+        // the ones found in the previous pass, a new one means another pass
+        for( var entry : frameLocals.entrySet() ){
+            var local = entry.getValue();
+            local.index = code.newLocal();
+            local.pass = pass;
+
+            frameSlot(entry.getKey());
+            code.op(AALOAD, -1);
+            if( local.kind == Kind.DOUBLE ){
+                code.type(CHECKCAST, "java/lang/Double");
+                code.invoke(INVOKEVIRTUAL, "java/lang/Double", "doubleValue", "()D");
+            }
+            store(local, local.kind);
+        }
+
+        loop.accept(this);
+
+        for( var entry : frameLocals.entrySet() ){
+            var local = entry.getValue();
+            frameSlot(entry.getKey());
+            code.local(local.kind == Kind.DOUBLE ? DLOAD : ALOAD, local.index);
+            box(local.kind);
+            code.op(AASTORE, -3);
+        }
+
+        code.getStatic(BASE, "NORMAL", OBJECT_DESC);
+        code.op(ARETURN, -1);
+    }
+
+    // leaves the frame and the index of slot in it on the stack
+    private void frameSlot(int slot){
+        code.local(ALOAD, FRAME);
+        code.local(ILOAD, FRAME_BASE);
+        code.pushInt(slot);
+        code.op(IADD, -1);
+    }
+
+    private void constructor(){
+        var init = new CodeBuilder(classBuilder, 2);
+        init.local(ALOAD, 0);
+        init.local(ALOAD, 1);
+        init.invoke(INVOKESPECIAL, BASE, "<init>", "([" + OBJECT_DESC + ")V");
+        init.op(RETURN, 0);
+        classBuilder.addMethod(
+                ClassBuilder.ACC_PUBLIC, "<init>", "([" + OBJECT_DESC + ")V", init
+        );
+    }
+
+    private int[] guards(){
+        var guards = new ArrayList<Integer>();
+        if( loop != null ){
+            frameLocals.forEach((slot, local) -> {
+                if( local.kind == Kind.DOUBLE )
+                    guards.add(slot);
+            });
+        } else {
+            var parameters = locals.get(function.scope());
+            for(var i = 0; i < function.parameters().size(); i++)
+                if( parameters[i].kind == Kind.DOUBLE )
+                    guards.add(i);
+        }
+
+        return guards.stream()
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    @Override
+    public Void visitExpression(Stmt.Expression expression) {
+        var expr = expression.expression();
+        if( expr instanceof Expr.Assign assign ){
+            assign(assign);
+        } else if( expr instanceof Expr.Set set ){
+            set(set);
+        } else {
+            pop( expr.accept(this) );
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrint(Stmt.Print print) {
+        constant(out, OUTPUT);
+        var kind = print.expression().accept(this);
+        if( kind == Kind.DOUBLE ){
+            code.invoke(INVOKEVIRTUAL, OUTPUT, "println", "(D)V");
+        } else {
+            box(kind);
+            code.invoke(INVOKEVIRTUAL, OUTPUT, "println", "(" + OBJECT_DESC + ")V");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVar(Stmt.Var var) {
+        var initializer = var.initializer();
+        var scope = scopes.get(scopes.size() - 1);
+        var slot = var.binding().slot;
+
+        if( initializer == null ){
+            var local = local(scope, slot, Kind.OBJECT, true);
+            code.getStatic(ENVIRONMENT, "NO_VALUE", OBJECT_DESC);
+            store(local, Kind.OBJECT);
+        } else {
+            // a number until we see otherwise
+            var local = local(scope, slot, Kind.DOUBLE, false);
+            store(local, initializer.accept(this));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlock(Stmt.Block block) {
+        scopes.add(block.scope());
+        for( var stmt : block.body() )
+            stmt.accept(this);
+        scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.IfStmt ifStmt) {
+        var elseBranch = code.label();
+        branch(ifStmt.condition(), elseBranch, false);
+        ifStmt.body().accept(this);
+
+        if( ifStmt.elseStmt() != null ){
+            var end = code.label();
+            code.jump(GOTO, end);
+            code.place(elseBranch);
+            ifStmt.elseStmt().accept(this);
+            code.place(end);
+        } else {
+            code.place(elseBranch);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.WhileStmt whileStmt) {
+        var start = code.label();
+        var exit = code.label();
+
+        code.place(start);
+        branch(whileStmt.condition(), exit, false);
+        whileStmt.body().accept(this);
+        code.jump(GOTO, start);
+        code.place(exit);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionDecl(Stmt.FunctionDecl functionDecl) {
+        throw new Unsupported("nested function");
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.ReturnStmt returnStmt) {
+        var value = returnStmt.value();
+        if( value == null )
+            code.op(ACONST_NULL, 1);
+        else
+            box( value.accept(this) );
+
+        code.op(ARETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitClassDecl(Stmt.ClassDecl classDecl) {
+        throw new Unsupported("class declaration");
+    }
+
+    @Override
+    public Kind visitBinary(Expr.Binary binary) {
+        var op = binary.operator();
+        switch (op.type()){
+            case PLUS -> {
+                if( operands(binary) ){
+                    code.op(DADD, -2);
+                    return Kind.DOUBLE;
+                }
+                constant(op, TOKEN);
+                code.invoke(
+                        INVOKESTATIC, SUPPORT, "add",
+                        "(" + OBJECT_DESC + OBJECT_DESC + TOKEN_DESC + ")" + OBJECT_DESC
+                );
+                return Kind.OBJECT;
+            }
+            case MINUS, STAR, SLASH -> {
+                numbers(binary);
+                code.op(switch (op.type()){
+                    case MINUS -> DSUB;
+                    case STAR -> DMUL;
+                    default -> DDIV;
+                }, -2);
+                return Kind.DOUBLE;
+            }
+            default -> {
+                // comparisons and equality
+                var isFalse = code.label();
+                var end = code.label();
+                branch(binary, isFalse, false);
+                code.pushInt(1);
+                code.jump(GOTO, end);
+                code.place(isFalse);
+                code.pushInt(0);
+                code.place(end);
+                return Kind.BOOLEAN;
+            }
+        }
+    }
+
+    @Override
+    public Kind visitLiteral(Expr.Literal literal) {
+        var value = literal.value();
+        if( value instanceof Double nr ){
+            code.pushDouble(nr);
+            return Kind.DOUBLE;
+        }
+
+        if( value instanceof Boolean bool ){
+            code.pushInt(bool ? 1 : 0);
+            return Kind.BOOLEAN;
+        }
+
+        if( value == null )
+            code.op(ACONST_NULL, 1);
+        else
+            constant(value, null);
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitGrouping(Expr.Grouping grouping) {
+        return grouping.expression().accept(this);
+    }
+
+    @Override
+    public Kind visitUnary(Expr.Unary unary) {
+        var op = unary.operator();
+        var kind = unary.expression().accept(this);
+
+        if( op.type() == TokenType.MINUS ){
+            number(kind, op);
+            code.op(DNEG, 0);
+            return Kind.DOUBLE;
+        }
+
+        truth(kind);
+        code.pushInt(1);
+        code.op(IXOR, -1);
+        return Kind.BOOLEAN;
+    }
+
+    @Override
+    public Kind visitVariable(Expr.Variable variable) {
+        return read(variable.name(), variable.binding());
+    }
+
+    @Override
+    public Kind visitAssign(Expr.Assign assign) {
+        assign(assign);
+        code.op(ACONST_NULL, 1);
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitLogical(Expr.Logical logical) {
+        var end = code.label();
+
+        box( logical.left().accept(this) );
+        code.op(DUP, 1);
+        truth(Kind.OBJECT);
+        code.jump(logical.operator().type() == TokenType.AND ? IFEQ : IFNE, end);
+
+        code.op(POP, -1);
+        box( logical.right().accept(this) );
+        code.place(end);
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitCall(Expr.Call call) {
+        // a method call, the method doesn't need to be bound
+        if( call.callee() instanceof Expr.Get get ){
+            var property = get.property();
+            box( get.expression().accept(this) );
+            constant(property, TOKEN);
+            code.invoke(
+                    INVOKESTATIC, SUPPORT, "instance",
+                    "(" + OBJECT_DESC + TOKEN_DESC + ")L" + INSTANCE + ";"
+            );
+            code.op(DUP, 1);
+            constant(property, TOKEN);
+            constant(get.cache(), PROPERTY_CACHE);
+            code.invoke(
+                    INVOKEVIRTUAL, INSTANCE, "callee",
+                    "(" + TOKEN_DESC + PROPERTY_CACHE_DESC + ")" + OBJECT_DESC
+            );
+            arguments(call);
+
+            code.invoke(
+                    INVOKESTATIC, SUPPORT, call.position().tail ? "tailInvoke" : "invoke",
+                    "(L" + INSTANCE + ";L" + CALLABLE + ";" + CAPTURES_DESC + ")" + OBJECT_DESC
+            );
+            return Kind.OBJECT;
+        }
+
+        box( call.callee().accept(this) );
+        return invoke(call);
+    }
+
+    // the rest of a call once the callee is on the stack
+    private Kind invoke(Expr.Call call) {
+        arguments(call);
+
+        // a tail call is run by whoever runs this code, see LoxFunction.execute
+        code.invoke(
+                INVOKESTATIC, SUPPORT, call.position().tail ? "tailCall" : "call",
+                "(L" + CALLABLE + ";" + CAPTURES_DESC + ")" + OBJECT_DESC
+        );
+        return Kind.OBJECT;
+    }
+
+    // checks the callee on the stack, then leaves the arguments in an array above it
+    private void arguments(Expr.Call call) {
+        var arguments = call.arguments();
+
+        constant(call.rightParen(), TOKEN);
+        code.pushInt(arguments.size());
+        code.invoke(
+                INVOKESTATIC, SUPPORT, "callee",
+                "(" + OBJECT_DESC + TOKEN_DESC + "I)L" + CALLABLE + ";"
+        );
+
+        code.pushInt(arguments.size());
+        code.type(ANEWARRAY, "java/lang/Object");
+        for(var i = 0; i < arguments.size(); i++){
+            code.op(DUP, 1);
+            code.pushInt(i);
+            box( arguments.get(i).accept(this) );
+            code.op(AASTORE, -3);
+        }
+    }
+
+    @Override
+    public Kind visitAnonymousFun(Expr.AnonymousFun anonymousFun) {
+        throw new Unsupported("anonymous function");
+    }
+
+    @Override
+    public Kind visitGet(Expr.Get get) {
+        box( get.expression().accept(this) );
+        constant(get.property(), TOKEN);
+        constant(get.cache(), PROPERTY_CACHE);
+        code.invoke(
+                INVOKESTATIC, SUPPORT, "get",
+                "(" + OBJECT_DESC + TOKEN_DESC + PROPERTY_CACHE_DESC + ")" + OBJECT_DESC
+        );
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitSet(Expr.Set set) {
+        set(set);
+        code.op(ACONST_NULL, 1);
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitThisExpr(Expr.ThisExpr thisExpr) {
+        return read(thisExpr.keyword(), thisExpr.binding());
+    }
+
+    @Override
+    public Kind visitSuperExpr(Expr.SuperExpr superExpr) {
+        throw new Unsupported("super");
+    }
+
+    @Override
+    public Kind visitInline(Expr.Inline inline) {
+        var call = inline.call();
+        var slowPath = code.label();
+        var end = code.label();
+
+        // the callee stays under the test, the slow path calls it
+        box( call.callee().accept(this) );
+        code.op(DUP, 1);
+        constant(inline.code(), null);
+        code.invoke(
+                INVOKESTATIC, SUPPORT, "inlined", "(" + OBJECT_DESC + OBJECT_DESC + ")Z"
+        );
+        code.jump(IFEQ, slowPath);
+
+        code.op(POP, -1);
+        box( inline.body().accept(this) );
+        code.jump(GOTO, end);
+
+        code.place(slowPath);
+        invoke(call);
+        code.place(end);
+        return Kind.OBJECT;
+    }
+
+    private Kind read(Token name, Binding binding){
+        if( binding.isGlobal() ){
+            code.local(ALOAD, globalsLocal);
+            constant(name, TOKEN);
+            code.pushInt(globals.indexOf(name.lexeme()));
+            code.invoke(INVOKEVIRTUAL, GLOBALS, "value", "(" + TOKEN_DESC + "I)" + OBJECT_DESC);
+            return Kind.OBJECT;
+        }
+
+        var local = resolve(binding);
+        if( local == null ){
+            code.local(ALOAD, CAPTURES);
+            code.pushInt(binding.capture);
+            constant(name, TOKEN);
+            code.invoke(
+                    INVOKESTATIC, SUPPORT, binding.cell ? "cell" : "captured",
+                    "(" + CAPTURES_DESC + "I" + TOKEN_DESC + ")" + OBJECT_DESC
+            );
+            return Kind.OBJECT;
+        }
+
+        if( local.kind == Kind.DOUBLE ){
+            code.local(DLOAD, local.index);
+            return Kind.DOUBLE;
+        }
+
+        code.local(ALOAD, local.index);
+        if( local.maybeUninitialized ){
+            constant(name, TOKEN);
+            code.invoke(
+                    INVOKESTATIC, SUPPORT, "initialized",
+                    "(" + OBJECT_DESC + TOKEN_DESC + ")" + OBJECT_DESC
+            );
+        }
+        return Kind.OBJECT;
+    }
+
+    private void assign(Expr.Assign assign){
+        var name = assign.name();
+        var binding = assign.binding();
+
+        if( binding.isGlobal() ){
+            code.local(ALOAD, globalsLocal);
+            constant(name, TOKEN);
+            code.pushInt(globals.indexOf(name.lexeme()));
+            box( assign.value().accept(this) );
+            code.invoke(INVOKEVIRTUAL, GLOBALS, "assign", "(" + TOKEN_DESC + "I" + OBJECT_DESC + ")V");
+            return;
+        }
+
+        var local = resolve(binding);
+        // captured variables that get assigned always are in a cell
+        if( local == null ){
+            code.local(ALOAD, CAPTURES);
+            code.pushInt(binding.capture);
+            box( assign.value().accept(this) );
+            code.invoke(INVOKESTATIC, SUPPORT, "assignCell", "(" + CAPTURES_DESC + "I" + OBJECT_DESC + ")V");
+            return;
+        }
+
+        store(local, assign.value().accept(this));
+    }
+
+    private void set(Expr.Set set){
+        var property = set.property();
+
+        box( set.expression().accept(this) );
+        constant(property, TOKEN);
+        code.invoke(
+                INVOKESTATIC, SUPPORT, "instance",
+                "(" + OBJECT_DESC + TOKEN_DESC + ")L" + INSTANCE + ";"
+        );
+        constant(property.lexeme(), "java/lang/String");
+        box( set.value().accept(this) );
+        constant(set.cache(), PROPERTY_CACHE);
+        code.invoke(
+                INVOKEVIRTUAL, INSTANCE, "set",
+                "(Ljava/lang/String;" + OBJECT_DESC + PROPERTY_CACHE_DESC + ")V"
+        );
+    }
+
+    // jumps to target when the truthiness of the expression is 'when'
+    private void branch(Expr expr, CodeBuilder.Label target, boolean when){
+        if( expr instanceof Expr.Grouping grouping ){
+            branch(grouping.expression(), target, when);
+            return;
+        }
+
+        if( expr instanceof Expr.Unary unary && unary.operator().type() == TokenType.BANG ){
+            branch(unary.expression(), target, !when);
+            return;
+        }
+
+        if( expr instanceof Expr.Logical logical ){
+            // 'and' jumps away as soon as something is false, 'or' when it's true
+            var shortCircuit = logical.operator().type() != TokenType.AND;
+            if( when == shortCircuit ){
+                branch(logical.left(), target, when);
+                branch(logical.right(), target, when);
+            } else {
+                var skip = code.label();
+                branch(logical.left(), skip, shortCircuit);
+                branch(logical.right(), target, when);
+                code.place(skip);
+            }
+            return;
+        }
+
+        if( expr instanceof Expr.Binary binary ){
+            var type = binary.operator().type();
+            switch (type){
+                case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> {
+                    numbers(binary);
+                    // NaN makes every comparison false
+                    var less = type == TokenType.LESS || type == TokenType.LESS_EQUAL;
+                    code.op(less ? DCMPG : DCMPL, -3);
+                    code.jump(switch (type){
+                        case LESS -> when ? IFLT : IFGE;
+                        case LESS_EQUAL -> when ? IFLE : IFGT;
+                        case GREATER -> when ? IFGT : IFLE;
+                        default -> when ? IFGE : IFLT;
+                    }, target);
+                    return;
+                }
+                case EQUAL_EQUAL, BANG_EQUAL -> {
+                    var equal = when == (type == TokenType.EQUAL_EQUAL);
+                    if( operands(binary) ){
+                        // Double.compare agrees with Double.equals
+                        code.invoke(INVOKESTATIC, "java/lang/Double", "compare", "(DD)I");
+                        code.jump(equal ? IFEQ : IFNE, target);
+                    } else {
+                        code.invoke(
+                                INVOKESTATIC, UTILS, "isEqual",
+                                "(" + OBJECT_DESC + OBJECT_DESC + ")Z"
+                        );
+                        code.jump(equal ? IFNE : IFEQ, target);
+                    }
+                    return;
+                }
+                default -> {}
+            }
+        }
+
+        truth( expr.accept(this) );
+        code.jump(when ? IFNE : IFEQ, target);
+    }
+
+    // Leaves both operands as doubles (returning true) or both boxed.
+    private boolean operands(Expr.Binary binary){
+        var left = binary.left().accept(this);
+        if( left != Kind.DOUBLE ){
+            box(left);
+            box( binary.right().accept(this) );
+            return false;
+        }
+
+        var right = binary.right().accept(this);
+        if( right == Kind.DOUBLE )
+            return true;
+
+        // the left double is under the right value
+        box(right);
+        var temp = code.newLocal();
+        code.local(ASTORE, temp);
+        box(Kind.DOUBLE);
+        code.local(ALOAD, temp);
+        return false;
+    }
+
+    // Leaves both operands as doubles, checking them only after both
+    // are evaluated (left first) just as the Interpreter does.
+    private void numbers(Expr.Binary binary){
+        var op = binary.operator();
+        var left = binary.left().accept(this);
+        if( left == Kind.DOUBLE ){
+            number(binary.right().accept(this), op);
+            return;
+        }
+
+        box(left);
+        box( binary.right().accept(this) );
+        var temp = code.newLocal();
+        code.local(ASTORE, temp);
+        number(Kind.OBJECT, op);
+        code.local(ALOAD, temp);
+        number(Kind.OBJECT, op);
+    }
+
+    private void number(Kind kind, Token op){
+        if( kind == Kind.DOUBLE )
+            return;
+
+        box(kind);
+        constant(op, TOKEN);
+        code.invoke(INVOKESTATIC, SUPPORT, "number", "(" + OBJECT_DESC + TOKEN_DESC + ")D");
+    }
+
+    private void truth(Kind kind){
+        switch (kind){
+            case DOUBLE -> {
+                code.op(POP2, -2);
+                code.pushInt(1);
+            }
+            case OBJECT -> code.invoke(INVOKESTATIC, UTILS, "isTruly", "(" + OBJECT_DESC + ")Z");
+            case BOOLEAN -> {}
+        }
+    }
+
+    private void box(Kind kind){
+        switch (kind){
+            case DOUBLE -> code.invoke(
+                    INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;"
+            );
+            case BOOLEAN -> code.invoke(
+                    INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;"
+            );
+            case OBJECT -> {}
+        }
+    }
+
+    private void pop(Kind kind){
+        if( kind == Kind.DOUBLE )
+            code.op(POP2, -2);
+        else
+            code.op(POP, -1);
+    }
+
+    private void store(Local local, Kind kind){
+        if( local.kind == Kind.DOUBLE && kind != Kind.DOUBLE ){
+            // not always a number after all, try again
+            local.kind = Kind.OBJECT;
+            changed = true;
+        }
+
+        if( local.kind == Kind.DOUBLE ){
+            code.local(DSTORE, local.index);
+        } else {
+            box(kind);
+            code.local(ASTORE, local.index);
+        }
+    }
+
+    private Local local(Scope scope, int slot, Kind kind, boolean maybeUninitialized){
+        var slots = locals.computeIfAbsent(scope, s -> new Local[s.size]);
+        var local = slots[slot];
+        if( local == null )
+            local = slots[slot] = new Local(kind, maybeUninitialized);
+
+        if( local.pass != pass ){
+            local.index = code.newLocal();
+            local.pass = pass;
+        }
+        return local;
+    }
+
+    // null for variables declared outside the function
+    private Local resolve(Binding binding){
+        var level = scopes.size() - 1 - binding.depth;
+        if( level < 0 )
+            return loop == null || binding.frameSlot == Binding.NOT_IN_FRAME ? null : frameLocal(binding);
+
+        var slots = locals.get(scopes.get(level));
+        var local = slots == null ? null : slots[binding.slot];
+        if( local == null || local.pass != pass )
+            throw new Unsupported("local read before its declaration");
+        return local;
+    }
+
+    // a local the function declared before the loop
+    private Local frameLocal(Binding binding){
+        if( binding.cell )
+            throw new Unsupported("local shared with a closure");
+
+        var local = frameLocals.get(binding.frameSlot);
+        if( local == null ){
+            var number = frame[base + binding.frameSlot] instanceof Double;
+            local = new Local(number ? Kind.DOUBLE : Kind.OBJECT, !number);
+            frameLocals.put(binding.frameSlot, local);
+        }
+
+        if( local.pass != pass ){
+            local.index = code.newLocal();
+            local.pass = pass;
+            changed = true;
+        }
+        return local;
+    }
+
+    private void constant(Object value, String type){
+        var index = constantIndexes.computeIfAbsent(value, v -> {
+            constants.add(v);
+            return constants.size() - 1;
+        });
+
+        code.local(ALOAD, constantsLocal);
+        code.pushInt(index);
+        code.op(AALOAD, -1);
+        if( type != null )
+            code.type(CHECKCAST, type);
+    }
+}
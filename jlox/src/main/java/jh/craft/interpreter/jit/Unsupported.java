@@ -0,0 +1,9 @@
+package jh.craft.interpreter.jit;
+
+// Thrown while compiling a function the JIT can't (or won't) translate,
+// the function just keeps running in the interpreter.
+final class Unsupported extends RuntimeException {
+    Unsupported(String reason){
+        super(reason, null, false, false);
+    }
+}
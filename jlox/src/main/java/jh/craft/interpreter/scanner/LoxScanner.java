@@ -3,37 +3,21 @@ package jh.craft.interpreter.scanner;
 import jh.craft.interpreter.types.LoxError;
 import jh.craft.interpreter.types.LoxErrorReporter;
 
-import java.util.*;
+import java.util.List;
 
 public class LoxScanner {
 
-    private final Map<String, TokenType> keywords = new HashMap<>(){{
-        put("and", TokenType.AND);
-        put("class", TokenType.CLASS);
-        put("else", TokenType.ELSE);
-        put("false", TokenType.FALSE);
-        put("fun", TokenType.FUN);
-        put("for", TokenType.FOR);
-        put("if", TokenType.IF);
-        put("nil", TokenType.NIL);
-        put("or", TokenType.OR);
-
-        put("print", TokenType.PRINT);
-        put("return", TokenType.RETURN);
-        put("super", TokenType.SUPER);
-        put("this", TokenType.THIS);
-        put("true", TokenType.TRUE);
-        put("var", TokenType.VAR);
-        put("while", TokenType.WHILE);
-    }};
-
-    private final String sourceCode;
+    private final Source sourceCode;
     private final LoxErrorReporter reporter;
     private int line;
     private int start;
     private int current;
 
     public LoxScanner(String sourceCode, LoxErrorReporter reporter){
+        this( Source.of( sourceCode ), reporter );
+    }
+
+    public LoxScanner(Source sourceCode, LoxErrorReporter reporter){
         this.reporter = reporter;
         this.sourceCode = sourceCode;
 
@@ -47,61 +31,75 @@ public class LoxScanner {
     }
 
     public List<Token> getTokens(){
-        List<Token> tokens = new ArrayList<>();
-        while(this.hasNext()){
-            var token = this.nextToken();
-            token.ifPresent(tokens::add);
-        }
+        return scan().tokens();
+    }
 
-        tokens.add(
-                this.nextToken().orElseThrow()
-        );
+    // all the tokens at once and packed, see TokenBuffer
+    public TokenBuffer scan(){
+        var tokens = new TokenBuffer( sourceCode );
+        TokenType type;
+        do{
+            type = this.next();
+            tokens.add( type, start, current - start, line );
+        }while( type != TokenType.EOF );
         return tokens;
     }
 
+    // Scans the next token, which is what is between start and current.
+    // Once the source ends it keeps on returning EOF.
+    TokenType next(){
+        TokenType type;
+        do{
+            start = current;
+            type = this.nextToken();
+        }while( type == null );
+        return type;
+    }
+
+    Source source(){
+        return sourceCode;
+    }
 
-    private Optional<Token> nextToken(){
+    int start(){
+        return start;
+    }
+
+    int end(){
+        return current;
+    }
+
+    int line(){
+        return line;
+    }
+
+
+    // the type of the token between start and current, null if there is none
+    private TokenType nextToken(){
         char value  = this.advance();
-        Token token = switch ( value ) {
+        return switch ( value ) {
             // basic signs
-            case '.' -> createToken( TokenType.DOT );
-            case '(' -> createToken( TokenType.LEFT_PAREN );
-            case ')' -> createToken( TokenType.RIGHT_PAREN );
-            case '{' -> createToken( TokenType.LEFT_BRACE );
-            case '}' -> createToken( TokenType.RIGHT_BRACE );
-            case ';' -> createToken( TokenType.SEMICOLON );
-            case ',' -> createToken( TokenType.COMMA );
+            case '.' -> TokenType.DOT;
+            case '(' -> TokenType.LEFT_PAREN;
+            case ')' -> TokenType.RIGHT_PAREN;
+            case '{' -> TokenType.LEFT_BRACE;
+            case '}' -> TokenType.RIGHT_BRACE;
+            case ';' -> TokenType.SEMICOLON;
+            case ',' -> TokenType.COMMA;
 
             // arithmetic signs
-            case '+' -> createToken(
-                    match('=') ?  TokenType.PLUS_EQUAL : TokenType.PLUS
-            );
-
-            case '-' -> createToken(
-                match('=') ? TokenType.MINUS_EQUAL : TokenType.MINUS
-            );
-
-            case '*' -> createToken(
-                match('=') ? TokenType.STAR_EQUAL : TokenType.STAR
-            );
+            case '+' -> match('=') ? TokenType.PLUS_EQUAL : TokenType.PLUS;
+            case '-' -> match('=') ? TokenType.MINUS_EQUAL : TokenType.MINUS;
+            case '*' -> match('=') ? TokenType.STAR_EQUAL : TokenType.STAR;
 
             case '/' -> checkComments();
 
             // handle space c:
 
             // comparison signs
-            case '>' -> createToken(
-                    match( '=' ) ? TokenType.GREATER_EQUAL : TokenType.GREATER
-            );
-            case '<' -> createToken(
-                    match( '=' ) ? TokenType.LESS_EQUAL : TokenType.LESS
-            );
-            case '=' -> createToken(
-                    match('=' )  ? TokenType.EQUAL_EQUAL : TokenType.EQUAL
-            );
-            case '!' -> createToken(
-                    match('=' )  ? TokenType.BANG_EQUAL : TokenType.BANG
-            );
+            case '>' -> match( '=' ) ? TokenType.GREATER_EQUAL : TokenType.GREATER;
+            case '<' -> match( '=' ) ? TokenType.LESS_EQUAL : TokenType.LESS;
+            case '=' -> match('=' ) ? TokenType.EQUAL_EQUAL : TokenType.EQUAL;
+            case '!' -> match('=' ) ? TokenType.BANG_EQUAL : TokenType.BANG;
 
             case '"' -> scanString();
 
@@ -112,9 +110,7 @@ public class LoxScanner {
             }
 
             // end of file c:
-            case '\0' -> createToken(
-                    TokenType.EOF
-            );
+            case '\0' -> TokenType.EOF;
 
             // numbers and identifiers
             default -> {
@@ -126,13 +122,13 @@ public class LoxScanner {
                     yield scanNumber();
 
                 this.reportError( "Unexpected symbol" );
+                // the rest of a char read as its UTF-8 bytes
+                while( this.peek() >= 0x80 && this.peek() < 0xc0 )
+                    current++;
                 yield null;
             }
 
         };
-
-        start = current;
-        return Optional.ofNullable( token );
     }
 
 
@@ -157,9 +153,9 @@ public class LoxScanner {
 
 
     // used to parse more complex constructs such as Strings, Identifiers, etc...
-    private Token checkComments(){
+    private TokenType checkComments(){
         if(match('='))
-            return createToken( TokenType.SLASH_EQUAL );
+            return TokenType.SLASH_EQUAL;
         else if( match('/') ) {
             char next;
             do {
@@ -178,12 +174,12 @@ public class LoxScanner {
             }while( next != '*' || !match('/') );
 
         } else {
-            return createToken( TokenType.SLASH );
+            return TokenType.SLASH;
         }
         return null;
     }
 
-    private Token scanString(){
+    private TokenType scanString(){
         char value;
         do{
             value = this.advance();
@@ -197,22 +193,20 @@ public class LoxScanner {
             return null;
         }
 
-        var stringValue = sourceCode.substring(start + 1, current-1);
-        return createToken(TokenType.STRING, stringValue);
+        return TokenType.STRING;
     }
 
-    private Token scanIdentifier(){
+    private TokenType scanIdentifier(){
         while( this.isAlphaNumeric( this.peek() ) ){
             current++;
         }
 
-        var word = sourceCode.substring( start, current );
-        return this.createToken(
-                keywords.getOrDefault(word, TokenType.IDENTIFIER)
-        );
+        return keyword();
     }
 
-    private Token scanNumber(){
+    // the digits are only parsed when the literal is needed, Double.parseDouble
+    // takes any number of them (the big ones become Infinity)
+    private TokenType scanNumber(){
         while( this.isDigit( this.peek() ))
             current++;
 
@@ -222,29 +216,49 @@ public class LoxScanner {
             } while( this.isDigit( this.peek() ));
         }
 
-        try{
-
-            var value = sourceCode.substring(start, current);
-            return createToken(
-                    TokenType.NUMBER, Double.parseDouble( value )
-            );
-        }catch (NumberFormatException ex){
-            this.reportError(
-                    "Number out of range: %s", ex.getMessage()
-            );
-            return null;
-        }
+        return TokenType.NUMBER;
     }
 
-    private Token createToken(TokenType type){
-        return this.createToken( type, null);
+    // tells keywords from identifiers by their first char and length,
+    // so the word doesn't need to be taken out of the source
+    private TokenType keyword(){
+        return switch ( sourceCode.charAt( start ) ){
+            case 'a' -> rest( "and", TokenType.AND );
+            case 'c' -> rest( "class", TokenType.CLASS );
+            case 'e' -> rest( "else", TokenType.ELSE );
+            case 'f' -> switch ( current - start ){
+                case 3 -> sourceCode.charAt( start + 1 ) == 'u'
+                        ? rest( "fun", TokenType.FUN )
+                        : rest( "for", TokenType.FOR );
+                case 5 -> rest( "false", TokenType.FALSE );
+                default -> TokenType.IDENTIFIER;
+            };
+            case 'i' -> rest( "if", TokenType.IF );
+            case 'n' -> rest( "nil", TokenType.NIL );
+            case 'o' -> rest( "or", TokenType.OR );
+            case 'p' -> rest( "print", TokenType.PRINT );
+            case 'r' -> rest( "return", TokenType.RETURN );
+            case 's' -> rest( "super", TokenType.SUPER );
+            case 't' -> switch ( current - start ){
+                case 4 -> sourceCode.charAt( start + 1 ) == 'h'
+                        ? rest( "this", TokenType.THIS )
+                        : rest( "true", TokenType.TRUE );
+                default -> TokenType.IDENTIFIER;
+            };
+            case 'v' -> rest( "var", TokenType.VAR );
+            case 'w' -> rest( "while", TokenType.WHILE );
+            default -> TokenType.IDENTIFIER;
+        };
     }
 
-    private Token createToken(TokenType type, Object literal){
-        var lexeme = sourceCode.substring(start, current);
-        return new Token(
-                type, lexeme, literal, line, current - 1
-        );
+    private TokenType rest(String keyword, TokenType type){
+        if( current - start != keyword.length() )
+            return TokenType.IDENTIFIER;
+
+        for(var i = 1; i < keyword.length(); i++)
+            if( sourceCode.charAt( start + i ) != keyword.charAt( i ) )
+                return TokenType.IDENTIFIER;
+        return type;
     }
 
 
@@ -0,0 +1,30 @@
+package jh.craft.interpreter.scanner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// A UTF-8 file as mapped bytes, offsets are byte offsets.
+final class MappedSource implements Source {
+    private final ByteBuffer bytes;
+
+    MappedSource(ByteBuffer bytes){
+        this.bytes = bytes;
+    }
+
+    @Override
+    public int length(){
+        return bytes.limit();
+    }
+
+    @Override
+    public char charAt(int offset){
+        return (char) ( bytes.get( offset ) & 0xff );
+    }
+
+    @Override
+    public String text(int start, int end){
+        var text = new byte[ end - start ];
+        bytes.get( start, text );
+        return new String( text, StandardCharsets.UTF_8 );
+    }
+}
@@ -0,0 +1,33 @@
+package jh.craft.interpreter.scanner;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// The code being scanned, read by offset. The scanner only looks at
+// ASCII chars, so a file can be scanned straight from its UTF-8 bytes
+// and text is only decoded for the tokens that become a Token.
+public interface Source {
+    int length();
+
+    // the char at offset, for a byte source the byte itself (a non ASCII
+    // char is then read as its UTF-8 bytes, all of them above 0x7f)
+    char charAt(int offset);
+
+    // the text between start and end, decoded
+    String text(int start, int end);
+
+    static Source of(String code){
+        return new StringSource( code );
+    }
+
+    // the file mapped into memory, it's never copied into the heap as a whole
+    static Source map(Path file) throws IOException {
+        try( var channel = FileChannel.open( file, StandardOpenOption.READ ) ){
+            return new MappedSource(
+                    channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() )
+            );
+        }
+    }
+}
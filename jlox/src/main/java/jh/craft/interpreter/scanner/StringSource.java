@@ -0,0 +1,19 @@
+package jh.craft.interpreter.scanner;
+
+record StringSource(String code) implements Source {
+
+    @Override
+    public int length(){
+        return code.length();
+    }
+
+    @Override
+    public char charAt(int offset){
+        return code.charAt( offset );
+    }
+
+    @Override
+    public String text(int start, int end){
+        return code.substring( start, end );
+    }
+}
@@ -5,4 +5,21 @@ public record Token(TokenType type, String lexeme, Object literal, int line, int
     public static Token from(Token other, TokenType type){
         return new Token(type, other.lexeme(), other.literal, other.line(), other.position());
     }
+
+    // the token found in the source between start and end
+    static Token of(Source source, TokenType type, int start, int end, int line){
+        return new Token(
+                type, source.text(start, end), literal(source, type, start, end), line, end - 1
+        );
+    }
+
+    // the value of a NUMBER or STRING token, null for the others
+    static Object literal(Source source, TokenType type, int start, int end){
+        return switch ( type ){
+            case NUMBER -> Double.parseDouble( source.text(start, end) );
+            // without the quotes
+            case STRING -> source.text(start + 1, end - 1);
+            default -> null;
+        };
+    }
 }
\ No newline at end of file
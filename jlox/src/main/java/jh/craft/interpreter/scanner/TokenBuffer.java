@@ -0,0 +1,85 @@
+package jh.craft.interpreter.scanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// The tokens of a source, packed into arrays: for each one its type,
+// where it starts, its length and its line. Nothing is allocated per
+// token, the lexeme and the literal are only taken from the source when
+// a Token is asked for.
+public final class TokenBuffer implements TokenSource {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final Source source;
+    private byte[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    private int size;
+
+    TokenBuffer(Source source){
+        this.source = source;
+        // about one token every five chars
+        var capacity = Math.max(16, source.length() / 5);
+        this.types = new byte[capacity];
+        this.starts = new int[capacity];
+        this.lengths = new int[capacity];
+        this.lines = new int[capacity];
+        this.size = 0;
+    }
+
+    void add(TokenType type, int start, int length, int line){
+        if( size == types.length ){
+            var capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        size++;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    @Override
+    public TokenType type(int index){
+        return TYPES[ types[index] ];
+    }
+
+    @Override
+    public int line(int index){
+        return lines[index];
+    }
+
+    @Override
+    public int position(int index){
+        return starts[index] + lengths[index] - 1;
+    }
+
+    @Override
+    public Object literal(int index){
+        var start = starts[index];
+        return Token.literal( source, type(index), start, start + lengths[index] );
+    }
+
+    @Override
+    public Token token(int index){
+        var start = starts[index];
+        return Token.of( source, type(index), start, start + lengths[index], lines[index] );
+    }
+
+    public List<Token> tokens(){
+        var tokens = new ArrayList<Token>(size);
+        for(var i = 0; i < size; i++)
+            tokens.add( token(i) );
+        return tokens;
+    }
+}
@@ -0,0 +1,13 @@
+package jh.craft.interpreter.scanner;
+
+// The tokens the parser reads, by their index in the source. The type,
+// line and position of a token can be read without making a Token.
+public interface TokenSource {
+    TokenType type(int index);
+    int line(int index);
+    // the position of its last char, the one errors point at
+    int position(int index);
+    // the value of a NUMBER or STRING token, null for the others
+    Object literal(int index);
+    Token token(int index);
+}
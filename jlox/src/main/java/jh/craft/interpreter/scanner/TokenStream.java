@@ -0,0 +1,69 @@
+package jh.craft.interpreter.scanner;
+
+// Tokens scanned as the parser asks for them, so scanning and parsing
+// happen in a single pass over the source. Only the last WINDOW tokens
+// are kept, which is more than the parser looks at: the token before the
+// current one, the current one and the one after it.
+public final class TokenStream implements TokenSource {
+    private static final int WINDOW = 4;
+
+    private final LoxScanner scanner;
+    private final TokenType[] types;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] lines;
+    // how many tokens were scanned so far
+    private int scanned;
+
+    public TokenStream(LoxScanner scanner){
+        this.scanner = scanner;
+        this.types = new TokenType[WINDOW];
+        this.starts = new int[WINDOW];
+        this.ends = new int[WINDOW];
+        this.lines = new int[WINDOW];
+        this.scanned = 0;
+    }
+
+    @Override
+    public TokenType type(int index){
+        return types[ slot(index) ];
+    }
+
+    @Override
+    public int line(int index){
+        return lines[ slot(index) ];
+    }
+
+    @Override
+    public int position(int index){
+        return ends[ slot(index) ] - 1;
+    }
+
+    @Override
+    public Object literal(int index){
+        var slot = slot(index);
+        return Token.literal( scanner.source(), types[slot], starts[slot], ends[slot] );
+    }
+
+    @Override
+    public Token token(int index){
+        var slot = slot(index);
+        return Token.of( scanner.source(), types[slot], starts[slot], ends[slot], lines[slot] );
+    }
+
+    // where the token is in the window, scanning up to it if needed
+    private int slot(int index){
+        while( index >= scanned ){
+            var slot = scanned % WINDOW;
+            types[slot] = scanner.next();
+            starts[slot] = scanner.start();
+            ends[slot] = scanner.end();
+            lines[slot] = scanner.line();
+            scanned++;
+        }
+
+        if( index < scanned - WINDOW )
+            throw new IllegalStateException("Token " + index + " is no longer kept.");
+        return index % WINDOW;
+    }
+}
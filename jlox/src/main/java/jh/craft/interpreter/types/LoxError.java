@@ -2,18 +2,33 @@ package jh.craft.interpreter.types;
 
 import jh.craft.interpreter.scanner.Token;
 
+import java.util.List;
+
 public class LoxError extends RuntimeException{
     public final int line;
     public final int position;
     public final String msg ;
+    // the Lox calls active when the error happened, innermost first
+    public final List<String> trace;
 
     public LoxError(int line, int position, String msg) {
-        this.line = line;
-        this.position = position;
-        this.msg = msg;
+        this(line, position, msg, List.of());
     }
 
     public LoxError(Token token, String msg){
         this(token.line(), token.position(), msg);
     }
+
+    public LoxError(Token token, String msg, List<String> trace){
+        this(token.line(), token.position(), msg, trace);
+    }
+
+    private LoxError(int line, int position, String msg, List<String> trace) {
+        // reported through the source position, no stack trace needed
+        super(msg, null, false, false);
+        this.line = line;
+        this.position = position;
+        this.msg = msg;
+        this.trace = trace;
+    }
 }
@@ -0,0 +1,69 @@
+package jh.craft.interpreter.types;
+
+// A Lox string built by concatenation. Ropes made by appending to one
+// another share a single buffer: each one sees the first length chars of
+// it, so appending to the newest rope only copies what is appended and
+// a string built piece by piece in a loop is linear instead of quadratic.
+// Appending to an older rope copies its part of the buffer first.
+//
+// The chars are only turned into a String (once) when the value is
+// needed as a whole: printing it, comparing it or hashing it.
+public final class LoxRope implements CharSequence {
+    private final StringBuilder buffer;
+    private final int length;
+    private String flat;
+
+    public LoxRope(CharSequence start){
+        this(new StringBuilder(start), start.length());
+    }
+
+    private LoxRope(StringBuilder buffer, int length){
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    public LoxRope append(CharSequence chars){
+        var target = buffer;
+        if( target.length() != length )
+            target = new StringBuilder( length + chars.length() ).append( buffer, 0, length );
+
+        target.append( chars );
+        return new LoxRope( target, target.length() );
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if( index >= length )
+            throw new IndexOutOfBoundsException(index);
+        return buffer.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if( flat == null )
+            flat = buffer.substring(0, length);
+        return flat;
+    }
+
+    // equal to the ropes with the same chars, Utils.isEqual
+    // also takes care of comparing ropes with Strings
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof LoxRope rope && toString().equals(rope.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
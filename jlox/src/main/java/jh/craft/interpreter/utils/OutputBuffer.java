@@ -0,0 +1,73 @@
+package jh.craft.interpreter.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+// Where 'print' writes to. Lines are kept in a buffer that is written
+// out once it fills up or when flush is called, instead of going through
+// the synchronized, auto flushing System.out for every statement. In
+// interactive mode every line is written out right away.
+public final class OutputBuffer {
+    private static final int SIZE = 1 << 16;
+
+    private final Writer out;
+    private final boolean interactive;
+    // numbers are formatted here before being written
+    private final char[] digits;
+
+    public OutputBuffer(PrintStream out, boolean interactive){
+        this.out = new BufferedWriter( new OutputStreamWriter( out ), SIZE );
+        this.interactive = interactive;
+        this.digits = new char[ Utils.NUMBER_CHARS ];
+    }
+
+    public void println(Object value){
+        try{
+            if( value instanceof Double nr )
+                number( nr );
+            else if( value instanceof CharSequence chars )
+                out.append( chars );
+            else
+                out.write( Utils.stringifyValue( value ) );
+            endLine();
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // for the compiled code, which keeps numbers unboxed
+    public void println(double value){
+        try{
+            number( value );
+            endLine();
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void flush(){
+        try{
+            out.flush();
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void number(double value) throws IOException {
+        var start = Utils.integralDigits( value, digits );
+        if( start < 0 )
+            out.write( Double.toString( value ) );
+        else
+            out.write( digits, start, digits.length - start );
+    }
+
+    private void endLine() throws IOException {
+        out.write( '\n' );
+        if( interactive )
+            out.flush();
+    }
+}
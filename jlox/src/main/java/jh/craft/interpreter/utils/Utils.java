@@ -1,22 +1,91 @@
 package jh.craft.interpreter.utils;
 
+import jh.craft.interpreter.types.LoxRope;
+
 public class Utils {
+    // results shorter than this are plain Strings, copying them is cheap
+    private static final int ROPE_LENGTH = 256;
+    // Double.toString writes the integral numbers below this with
+    // a ".0" at the end, Lox prints them as integers.
+    private static final double INTEGRAL_LIMIT = 1e7;
+    // chars of the longest of those, "-9999999"
+    public static final int NUMBER_CHARS = 8;
+
     public static String stringify(Object value){
-        if(value instanceof String)
+        if(isString(value))
             return String.format("'%s'", value);
         return stringifyValue( value );
     }
 
     public static String stringifyValue(Object value){
         if( value == null ) return "nil";
-        else if(value instanceof Double){
-            var result = value.toString();
-            if(result.endsWith(".0")){
-                return result.split("\\.0")[0];
-            }
-        }
+        else if(value instanceof Double nr) return stringifyNumber(nr);
         return value.toString();
     }
 
+    public static String stringifyNumber(double value){
+        if( !isIntegral(value) )
+            return Double.toString(value);
+        return isNegativeZero(value) ? "-0" : Long.toString((long) value);
+    }
+
+    // Writes a number Lox prints as an integer at the end of chars, which
+    // has to have room for NUMBER_CHARS. Returns the index of its first
+    // char or -1 if the number is printed as Double.toString does.
+    public static int integralDigits(double value, char[] chars){
+        if( !isIntegral(value) )
+            return -1;
+
+        var start = chars.length;
+        var n = Math.abs((long) value);
+        do{
+            chars[--start] = (char) ('0' + n % 10);
+            n /= 10;
+        }while( n != 0 );
+
+        if( value < 0 || isNegativeZero(value) )
+            chars[--start] = '-';
+        return start;
+    }
+
+    private static boolean isIntegral(double value){
+        return Math.abs(value) < INTEGRAL_LIMIT && value == (long) value;
+    }
+
+    private static boolean isNegativeZero(double value){
+        return Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(-0.0);
+    }
+
+    // Lox strings are either Strings or, once concatenation made them
+    // long, LoxRopes. Both behave the same to the programs.
+    public static boolean isString(Object value){
+        return value instanceof String || value instanceof LoxRope;
+    }
+
+    // the '+' of two values where at least one is a string
+    public static Object concat(Object left, Object right){
+        var rightStr = right instanceof LoxRope rope ? rope : stringifyValue(right);
+        if( left instanceof LoxRope rope )
+            return rope.append(rightStr);
+
+        var leftStr = stringifyValue(left);
+        if( leftStr.length() + rightStr.length() < ROPE_LENGTH )
+            return leftStr.concat(rightStr.toString());
+        return new LoxRope(leftStr).append(rightStr);
+    }
+
+    public static boolean isEqual(Object fst, Object snd){
+        if( fst instanceof LoxRope rope ) fst = rope.toString();
+        if( snd instanceof LoxRope rope ) snd = rope.toString();
+
+        if(fst == null) return snd == null;
+        else return fst.equals(snd);
+    }
+
+    public static boolean isTruly(Object value){
+        if( value == null ) return false;
+        else if( value instanceof  Boolean ) return (Boolean) value;
+        else return true;
+    }
 
 }
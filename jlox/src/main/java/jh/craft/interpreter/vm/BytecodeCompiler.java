@@ -0,0 +1,438 @@
+package jh.craft.interpreter.vm;
+
+import jh.craft.interpreter.ast.Binding;
+import jh.craft.interpreter.ast.Expr;
+import jh.craft.interpreter.ast.Scope;
+import jh.craft.interpreter.ast.Stmt;
+import jh.craft.interpreter.core.GlobalTable;
+import jh.craft.interpreter.scanner.Token;
+import jh.craft.interpreter.scanner.TokenType;
+
+import java.util.List;
+
+import static jh.craft.interpreter.vm.OpCode.*;
+
+// Turns statements already checked by the LoxStaticAnalyst into bytecode.
+// Variables are addressed the same way the Interpreter does it: locals
+// by the slot the analyst placed them at in the frame of their function,
+// free variables by their index in the captures of the closure and
+// globals by their index in the GlobalTable.
+public class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    private final GlobalTable globals;
+    private Chunk chunk;
+    // slots the function being compiled needs for its locals
+    private int frameSize;
+
+    public BytecodeCompiler(GlobalTable globals){
+        this.globals = globals;
+    }
+
+    // compiles top level code as a function with no parameters
+    Prototype compile(List<Stmt> statements){
+        return function(null, List.of(), statements, null, null);
+    }
+
+    private void compile(Stmt statement){
+        statement.accept( this );
+    }
+
+    private void compile(Expr expression){
+        expression.accept( this );
+    }
+
+    private Prototype function(String name, List<Token> params, List<Stmt> body, Scope scope, Token token){
+        var enclosing = chunk;
+        var enclosingSize = frameSize;
+        chunk = new Chunk();
+        frameSize = scope == null ? 0 : scope.size;
+
+        for(var stmt : body)
+            compile(stmt);
+
+        // implicit 'return nil;'
+        emit(NIL, token);
+        emit(RETURN, token);
+
+        var compiled = chunk;
+        compiled.trim();
+        var size = frameSize;
+        chunk = enclosing;
+        frameSize = enclosingSize;
+
+        return new Prototype(name, params.size(), size, compiled, scope);
+    }
+
+    @Override
+    public Void visitBinary(Expr.Binary binary) {
+        compile(binary.left());
+        compile(binary.right());
+
+        var op = binary.operator();
+        emit(switch (op.type()){
+            case PLUS -> ADD;
+            case MINUS -> SUBTRACT;
+            case STAR -> MULTIPLY;
+            case SLASH -> DIVIDE;
+            case GREATER -> GREATER;
+            case GREATER_EQUAL -> GREATER_EQUAL;
+            case LESS -> LESS;
+            case LESS_EQUAL -> LESS_EQUAL;
+            case EQUAL_EQUAL -> EQUAL;
+            case BANG_EQUAL -> NOT_EQUAL;
+            default -> {
+                throw new RuntimeException("Unreachable");
+            }
+        }, op);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(Expr.Literal literal) {
+        var value = literal.value();
+        if( value == null ) emit(NIL, null);
+        else if( value.equals(true) ) emit(TRUE, null);
+        else if( value.equals(false) ) emit(FALSE, null);
+        else {
+            emit(CONSTANT, null);
+            chunk.writeShort(null, chunk.addConstant(value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(Expr.Grouping grouping) {
+        compile(grouping.expression());
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(Expr.Unary unary) {
+        compile(unary.expression());
+
+        var op = unary.operator();
+        emit(switch (op.type()){
+            case BANG -> NOT;
+            case MINUS -> NEGATE;
+            default -> {
+                throw new RuntimeException("Unreachable");
+            }
+        }, op);
+        return null;
+    }
+
+    @Override
+    public Void visitVariable(Expr.Variable variable) {
+        load(variable.name(), variable.binding());
+        return null;
+    }
+
+    @Override
+    public Void visitAssign(Expr.Assign assign) {
+        compile(assign.value());
+        store(assign.name(), assign.binding());
+        return null;
+    }
+
+    @Override
+    public Void visitLogical(Expr.Logical logical) {
+        compile(logical.left());
+
+        var op = logical.operator();
+        var jump = emitJump(
+                op.type() == TokenType.AND ? JUMP_IF_FALSE : JUMP_IF_TRUE, op
+        );
+        emit(POP, op);
+        compile(logical.right());
+        patchJump(jump, op);
+        return null;
+    }
+
+    @Override
+    public Void visitCall(Expr.Call call) {
+        compile(call.callee());
+        invoke(call);
+        return null;
+    }
+
+    // the rest of a call once the callee is on the stack
+    private void invoke(Expr.Call call) {
+        var paren = call.rightParen();
+        var arguments = call.arguments();
+
+        // the callee is checked before the arguments are evaluated
+        emit(CHECK_CALL, paren);
+        chunk.writeShort(paren, arguments.size());
+
+        for(var arg : arguments)
+            compile(arg);
+
+        emit(CALL, paren);
+        chunk.writeShort(paren, arguments.size());
+    }
+
+    @Override
+    public Void visitAnonymousFun(Expr.AnonymousFun anonymousFun) {
+        closure(function(
+                null, anonymousFun.parameters(), anonymousFun.body(), anonymousFun.scope(), null
+        ), null);
+        return null;
+    }
+
+    @Override
+    public Void visitGet(Expr.Get get) {
+        var property = get.property();
+        compile(get.expression());
+        emit(GET_PROPERTY, property);
+        chunk.writeShort(property, chunk.addConstant(property.lexeme()));
+        return null;
+    }
+
+    @Override
+    public Void visitSet(Expr.Set set) {
+        var property = set.property();
+        compile(set.expression());
+        // the object is checked before the value is evaluated
+        emit(CHECK_INSTANCE, property);
+        compile(set.value());
+        emit(SET_PROPERTY, property);
+        chunk.writeShort(property, chunk.addConstant(property.lexeme()));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.ThisExpr thisExpr) {
+        load(thisExpr.keyword(), thisExpr.binding());
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.SuperExpr superExpr) {
+        var keyword = superExpr.keyword();
+        load(keyword, superExpr.binding());
+        load(keyword, superExpr.receiver());
+        emit(GET_SUPER, keyword);
+        chunk.writeShort(keyword, chunk.addConstant(superExpr.identifier().lexeme()));
+        return null;
+    }
+
+    @Override
+    public Void visitInline(Expr.Inline inline) {
+        var call = inline.call();
+        var paren = call.rightParen();
+
+        compile(call.callee());
+        emit(IS_CODE, paren);
+        chunk.writeShort(paren, chunk.addConstant(inline.code()));
+
+        // the callee stays under the test, the slow path calls it
+        var slowPath = emitJump(JUMP_IF_FALSE, paren);
+        emit(POP, paren);
+        emit(POP, paren);
+        compile(inline.body());
+        var end = emitJump(JUMP, paren);
+
+        patchJump(slowPath, paren);
+        emit(POP, paren);
+        invoke(call);
+        patchJump(end, paren);
+        return null;
+    }
+
+    @Override
+    public Void visitExpression(Stmt.Expression expression) {
+        compile(expression.expression());
+        emit(POP, null);
+        return null;
+    }
+
+    @Override
+    public Void visitPrint(Stmt.Print print) {
+        compile(print.expression());
+        emit(PRINT, null);
+        return null;
+    }
+
+    @Override
+    public Void visitVar(Stmt.Var var) {
+        var initializer = var.initializer();
+        declare(var.name(), var.binding());
+        if( initializer == null )
+            emit(UNINITIALIZED, null);
+        else
+            compile(initializer);
+
+        define(var.name(), var.binding());
+        return null;
+    }
+
+    @Override
+    public Void visitBlock(Stmt.Block block) {
+        // its locals already have their slots in the frame
+        for(var stmt : block.body())
+            compile(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.IfStmt ifStmt) {
+        compile(ifStmt.condition());
+
+        var thenJump = emitJump(JUMP_IF_FALSE, null);
+        emit(POP, null);
+        compile(ifStmt.body());
+
+        var elseJump = emitJump(JUMP, null);
+        patchJump(thenJump, null);
+        emit(POP, null);
+
+        if( ifStmt.elseStmt() != null )
+            compile(ifStmt.elseStmt());
+
+        patchJump(elseJump, null);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.WhileStmt whileStmt) {
+        var loopStart = chunk.length;
+        compile(whileStmt.condition());
+
+        var exitJump = emitJump(JUMP_IF_FALSE, null);
+        emit(POP, null);
+        compile(whileStmt.body());
+
+        emit(LOOP, null);
+        chunk.writeShort(null, chunk.length - loopStart + 2);
+
+        patchJump(exitJump, null);
+        emit(POP, null);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionDecl(Stmt.FunctionDecl functionDecl) {
+        var name = functionDecl.name();
+        // the function may capture itself
+        declare(name, functionDecl.binding());
+        closure(prototype(functionDecl), name);
+        define(name, functionDecl.binding());
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.ReturnStmt returnStmt) {
+        var value = returnStmt.value();
+        if( value == null )
+            emit(NIL, null);
+        else
+            compile(value);
+
+        emit(RETURN, returnStmt.keyword());
+        return null;
+    }
+
+    @Override
+    public Void visitClassDecl(Stmt.ClassDecl classDecl) {
+        var name = classDecl.name();
+        var superClass = classDecl.superClass();
+        declare(name, classDecl.binding());
+
+        if( superClass != null ){
+            compile(superClass);
+            emit(CHECK_SUPER, superClass.name());
+        }
+
+        // the methods using 'super' capture the superclass left on the stack
+        var methods = classDecl.methodsDecls();
+        for(var i = 0; i < methods.size(); i++){
+            var method = methods.get(i);
+            if( superClass == null ){
+                closure(prototype(method), method.name());
+            } else {
+                emit(METHOD, method.name());
+                chunk.writeShort(method.name(), chunk.addConstant(prototype(method)));
+                chunk.writeShort(method.name(), i);
+            }
+        }
+
+        emit(CLASS, name);
+        chunk.writeShort(name, chunk.addConstant(name.lexeme()));
+        chunk.writeShort(name, methods.size());
+        chunk.write((byte) (superClass != null ? 1 : 0));
+
+        define(name, classDecl.binding());
+        return null;
+    }
+
+    private Prototype prototype(Stmt.FunctionDecl function){
+        var name = function.name();
+        return function(
+                name.lexeme(), function.parameters(), function.body(), function.scope(), name
+        );
+    }
+
+    private void closure(Prototype prototype, Token token){
+        emit(CLOSURE, token);
+        chunk.writeShort(token, chunk.addConstant(prototype));
+    }
+
+    private void load(Token name, Binding binding){
+        if( binding.isGlobal() )
+            variable(GET_GLOBAL, name, globals.indexOf(name.lexeme()));
+        else if( binding.frameSlot == Binding.NOT_IN_FRAME )
+            variable(binding.cell ? GET_CAPTURED_CELL : GET_CAPTURE, name, binding.capture);
+        else
+            variable(binding.cell ? GET_CELL : GET_LOCAL, name, binding.frameSlot);
+    }
+
+    // captured variables that are assigned always are in a cell
+    private void store(Token name, Binding binding){
+        if( binding.isGlobal() )
+            variable(SET_GLOBAL, name, globals.indexOf(name.lexeme()));
+        else if( binding.frameSlot == Binding.NOT_IN_FRAME )
+            variable(SET_CAPTURED_CELL, name, binding.capture);
+        else
+            variable(binding.cell ? SET_CELL : SET_LOCAL, name, binding.frameSlot);
+    }
+
+    // locals shared with closures get their cell before anything can capture them
+    private void declare(Token name, Binding binding){
+        if( !binding.isGlobal() && binding.cell )
+            variable(DECLARE_CELL, name, local(binding));
+    }
+
+    private void define(Token name, Binding binding){
+        if( binding.isGlobal() )
+            variable(DEFINE_GLOBAL, name, globals.indexOf(name.lexeme()));
+        else
+            variable(binding.cell ? DEFINE_CELL : DEFINE_LOCAL, name, local(binding));
+    }
+
+    // declarations always are in the frame of the running code
+    private int local(Binding binding){
+        frameSize = Math.max(frameSize, binding.frameSlot + 1);
+        return binding.frameSlot;
+    }
+
+    private void variable(byte op, Token name, int index){
+        emit(op, name);
+        chunk.writeShort(name, index);
+    }
+
+    private void emit(byte op, Token token){
+        chunk.emit(op, token);
+    }
+
+    // returns where the offset of the jump should be written
+    private int emitJump(byte op, Token token){
+        emit(op, token);
+        chunk.write((byte) 0);
+        chunk.write((byte) 0);
+        return chunk.length - 2;
+    }
+
+    private void patchJump(int offset, Token token){
+        chunk.patchShort(token, offset, chunk.length - offset - 2);
+    }
+}
@@ -0,0 +1,93 @@
+package jh.craft.interpreter.vm;
+
+import jh.craft.interpreter.scanner.Token;
+import jh.craft.interpreter.types.LoxError;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// The bytecode of a function together with its constant pool. For every
+// instruction that may fail we also keep the token to blame, indexed by
+// the offset where the instruction starts.
+final class Chunk {
+    private static final int MAX_U16 = 0xFFFF;
+
+    byte[] code;
+    Token[] tokens;
+    Object[] constants;
+    int length;
+    int constantsCount;
+    private Map<Object, Integer> constantIndexes;
+    private Token lastToken;
+
+    Chunk(){
+        this.code = new byte[16];
+        this.tokens = new Token[16];
+        this.constants = new Object[8];
+        this.length = 0;
+        this.constantsCount = 0;
+        this.constantIndexes = new HashMap<>();
+    }
+
+    // returns the offset of the instruction
+    int emit(byte op, Token token){
+        var offset = length;
+        write(op);
+        tokens[offset] = token;
+        if( token != null ) lastToken = token;
+        return offset;
+    }
+
+    void write(byte value){
+        if( length == code.length ){
+            code = Arrays.copyOf(code, length * 2);
+            tokens = Arrays.copyOf(tokens, length * 2);
+        }
+        code[length++] = value;
+    }
+
+    void writeShort(Token token, int value){
+        checkU16(token, value, "Too many slots, constants or arguments.");
+        write((byte) (value >> 8));
+        write((byte) value);
+    }
+
+    void patchShort(Token token, int offset, int value){
+        checkU16(token, value, "Too much code to jump over.");
+        code[offset] = (byte) (value >> 8);
+        code[offset + 1] = (byte) value;
+    }
+
+    // numbers and strings are stored only once per chunk
+    int addConstant(Object value){
+        var known = value instanceof Prototype ? null : constantIndexes.get(value);
+        if( known != null )
+            return known;
+
+        if( !(value instanceof Prototype) )
+            constantIndexes.put(value, constantsCount);
+
+        if( constantsCount == constants.length )
+            constants = Arrays.copyOf(constants, constantsCount * 2);
+        constants[constantsCount] = value;
+        return constantsCount++;
+    }
+
+    // called once the compiler is done with the chunk
+    void trim(){
+        constantIndexes = null;
+        lastToken = null;
+        code = Arrays.copyOf(code, length);
+        tokens = Arrays.copyOf(tokens, length);
+        constants = Arrays.copyOf(constants, constantsCount);
+    }
+
+    private void checkU16(Token token, int value, String msg){
+        if( value < 0 || value > MAX_U16 ){
+            // statements have no token of their own, so we blame the closest one
+            var culprit = token != null ? token : lastToken;
+            throw culprit != null ? new LoxError(culprit, msg) : new LoxError(0, 0, msg);
+        }
+    }
+}
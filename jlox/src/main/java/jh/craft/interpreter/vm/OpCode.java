@@ -0,0 +1,68 @@
+package jh.craft.interpreter.vm;
+
+// The instructions understood by the VM. Each one is a single byte,
+// followed by its operands: u8 operands take one byte and u16 ones
+// take two (big endian).
+final class OpCode {
+    private OpCode(){}
+
+    // constants
+    static final byte CONSTANT      = 0;  // u16 constant index
+    static final byte NIL           = 1;
+    static final byte TRUE          = 2;
+    static final byte FALSE         = 3;
+    static final byte UNINITIALIZED = 4;  // value of a 'var' with no initializer
+    static final byte POP           = 5;
+
+    // Variables. Locals live in the stack, at the base of the frame plus
+    // their slot, captured variables in the captures of the running
+    // closure. Locals shared with closures that assign them are in a Cell.
+    static final byte GET_LOCAL     = 6;  // u16 slot
+    static final byte SET_LOCAL     = 7;  // u16 slot
+    static final byte DEFINE_LOCAL  = 8;  // u16 slot
+    static final byte GET_CELL      = 9;  // u16 slot
+    static final byte SET_CELL      = 10; // u16 slot
+    static final byte DEFINE_CELL   = 11; // u16 slot
+    static final byte DECLARE_CELL  = 12; // u16 slot, puts an empty cell in it
+    static final byte GET_CAPTURE   = 13; // u16 capture index
+    static final byte GET_CAPTURED_CELL = 14; // u16 capture index
+    static final byte SET_CAPTURED_CELL = 15; // u16 capture index
+    static final byte GET_GLOBAL    = 16; // u16 global index
+    static final byte SET_GLOBAL    = 17; // u16 global index
+    static final byte DEFINE_GLOBAL = 18; // u16 global index
+
+    // operators
+    static final byte ADD           = 19;
+    static final byte SUBTRACT      = 20;
+    static final byte MULTIPLY      = 21;
+    static final byte DIVIDE        = 22;
+    static final byte GREATER       = 23;
+    static final byte GREATER_EQUAL = 24;
+    static final byte LESS          = 25;
+    static final byte LESS_EQUAL    = 26;
+    static final byte EQUAL         = 27;
+    static final byte NOT_EQUAL     = 28;
+    static final byte NEGATE        = 29;
+    static final byte NOT           = 30;
+
+    // control flow
+    static final byte PRINT         = 31;
+    static final byte JUMP          = 32; // u16 forward offset
+    static final byte JUMP_IF_FALSE = 33; // u16 forward offset, keeps the condition
+    static final byte JUMP_IF_TRUE  = 34; // u16 forward offset, keeps the condition
+    static final byte LOOP          = 35; // u16 backward offset
+
+    // functions and classes
+    static final byte CHECK_CALL    = 36; // u16 argument count, validates the callee
+    static final byte CALL          = 37; // u16 argument count
+    static final byte CLOSURE       = 38; // u16 constant index of a Prototype
+    static final byte METHOD        = 39; // u16 Prototype constant, u16 distance from the top to the superclass
+    static final byte RETURN        = 40;
+    static final byte CHECK_SUPER   = 41; // validates the superclass on top of the stack
+    static final byte CLASS         = 42; // u16 name constant, u16 methods count, u8 has super
+    static final byte CHECK_INSTANCE= 43; // validates the object of a property set
+    static final byte GET_PROPERTY  = 44; // u16 name constant
+    static final byte SET_PROPERTY  = 45; // u16 name constant
+    static final byte GET_SUPER     = 46; // u16 method name constant, takes the superclass and 'this'
+    static final byte IS_CODE       = 47; // u16 constant index of a Scope, pushes if the callee on top comes from it
+}
@@ -0,0 +1,9 @@
+package jh.craft.interpreter.vm;
+
+import jh.craft.interpreter.ast.Scope;
+
+// A compiled function, before being closed over its captures. The frame
+// size counts the slots of its parameters and of every local, blocks
+// included. An anonymous function has no name and the top level script
+// is compiled as a function with no name, no parameters and no code scope.
+record Prototype(String name, int arity, int frameSize, Chunk chunk, Scope code) {}
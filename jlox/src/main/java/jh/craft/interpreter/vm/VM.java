@@ -0,0 +1,528 @@
+package jh.craft.interpreter.vm;
+
+import jh.craft.interpreter.ast.Stmt;
+import jh.craft.interpreter.core.Cell;
+import jh.craft.interpreter.core.Environment;
+import jh.craft.interpreter.core.GlobalTable;
+import jh.craft.interpreter.core.LoxClass;
+import jh.craft.interpreter.core.LoxEngine;
+import jh.craft.interpreter.core.LoxInstance;
+import jh.craft.interpreter.core.LoxMethod;
+import jh.craft.interpreter.core.Natives;
+import jh.craft.interpreter.scanner.Token;
+import jh.craft.interpreter.types.LoxCallable;
+import jh.craft.interpreter.types.LoxError;
+import jh.craft.interpreter.types.LoxErrorReporter;
+import jh.craft.interpreter.utils.OutputBuffer;
+import jh.craft.interpreter.utils.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static jh.craft.interpreter.vm.OpCode.*;
+
+// A stack based virtual machine running the bytecode produced by the
+// BytecodeCompiler. Calls between Lox functions (and constructors) push
+// a new Frame and keep running in the same dispatch loop, so they use
+// no Java stack at all: recursion is only limited by maxDepth, past it
+// the program stops with a Lox stack overflow error and its trace.
+//
+// The locals of a call live in the stack too, in the slots the analyst
+// gave them starting at the base of its frame, right above the callee.
+// Only what closures capture leaves the stack: the values are copied
+// into the captures of the closure when it is created, and the locals
+// a closure may assign are kept in a Cell shared by both.
+public class VM implements LoxEngine {
+    public static final int DEFAULT_MAX_DEPTH = 1 << 18;
+    // frames shown in the trace of a stack overflow
+    private static final int TRACE_LIMIT = 16;
+
+    private static final class Frame {
+        Prototype prototype;
+        Chunk chunk;
+        int ip;
+        // slot of the first parameter, the callee is right below it
+        int base;
+        Object[] captures;
+        // set when the frame runs 'init' for a new instance
+        LoxInstance instance;
+    }
+
+    private final LoxErrorReporter reporter;
+    // 'print' goes through here, it's written out when a run ends
+    private final OutputBuffer out;
+    private final GlobalTable globals;
+    private final BytecodeCompiler compiler;
+
+    private Object[] stack;
+    private int sp;
+    private Frame[] frames;
+    private int fp;
+
+    private final int maxDepth;
+
+    public VM(LoxErrorReporter reporter){
+        this(reporter, DEFAULT_MAX_DEPTH);
+    }
+
+    public VM(LoxErrorReporter reporter, int maxDepth){
+        this(reporter, maxDepth, new OutputBuffer( System.out, false ));
+    }
+
+    public VM(LoxErrorReporter reporter, int maxDepth, OutputBuffer out){
+        this.reporter = reporter;
+        this.out = out;
+        this.maxDepth = maxDepth;
+        this.globals = new GlobalTable();
+        this.compiler = new BytecodeCompiler(globals);
+
+        this.stack = new Object[256];
+        this.sp = 0;
+        this.frames = new Frame[64];
+        this.fp = 0;
+
+        Natives.define( globals );
+    }
+
+    @Override
+    public void interpret(List<Stmt> statements){
+        try{
+            var script = new VMFunction(
+                    this, compiler.compile(statements), null
+            );
+            push(script);
+            pushFrame(script, 0, null, null);
+            run(0);
+        }catch (LoxError error){
+            // what was printed before the error comes first
+            out.flush();
+            reporter.report( error );
+        } finally {
+            out.flush();
+            sp = 0;
+            fp = 0;
+        }
+    }
+
+    Object call(VMFunction function, List<Object> arguments){
+        push(function);
+        for(var arg : arguments)
+            push(arg);
+
+        pushFrame(function, arguments.size(), null, null);
+        return run(fp - 1);
+    }
+
+    // runs until the number of frames drops to exit
+    private Object run(int exit){
+        var frame = frames[fp - 1];
+        var chunk = frame.chunk;
+        var code = chunk.code;
+        var ip = frame.ip;
+        var base = frame.base;
+        var captures = frame.captures;
+
+        for(;;){
+            var start = ip;
+            switch (code[ip++]){
+                case CONSTANT -> {
+                    push(chunk.constants[u16(code, ip)]);
+                    ip += 2;
+                }
+                case NIL -> push(null);
+                case TRUE -> push(true);
+                case FALSE -> push(false);
+                case UNINITIALIZED -> push(Environment.NO_VALUE);
+                case POP -> sp--;
+
+                case GET_LOCAL -> {
+                    push(Environment.initialized(
+                            chunk.tokens[start], stack[base + u16(code, ip)]
+                    ));
+                    ip += 2;
+                }
+                case SET_LOCAL -> {
+                    stack[base + u16(code, ip)] = stack[sp - 1];
+                    stack[sp - 1] = null;
+                    ip += 2;
+                }
+                case DEFINE_LOCAL -> {
+                    stack[base + u16(code, ip)] = stack[--sp];
+                    ip += 2;
+                }
+                case GET_CELL -> {
+                    var cell = (Cell) stack[base + u16(code, ip)];
+                    push(Environment.initialized(chunk.tokens[start], cell.value));
+                    ip += 2;
+                }
+                case SET_CELL -> {
+                    ((Cell) stack[base + u16(code, ip)]).value = stack[sp - 1];
+                    stack[sp - 1] = null;
+                    ip += 2;
+                }
+                case DEFINE_CELL -> {
+                    ((Cell) stack[base + u16(code, ip)]).value = stack[--sp];
+                    ip += 2;
+                }
+                case DECLARE_CELL -> {
+                    stack[base + u16(code, ip)] = new Cell(Environment.NO_VALUE);
+                    ip += 2;
+                }
+                case GET_CAPTURE -> {
+                    push(Environment.initialized(
+                            chunk.tokens[start], captures[u16(code, ip)]
+                    ));
+                    ip += 2;
+                }
+                case GET_CAPTURED_CELL -> {
+                    var cell = (Cell) captures[u16(code, ip)];
+                    push(Environment.initialized(chunk.tokens[start], cell.value));
+                    ip += 2;
+                }
+                case SET_CAPTURED_CELL -> {
+                    ((Cell) captures[u16(code, ip)]).value = stack[sp - 1];
+                    stack[sp - 1] = null;
+                    ip += 2;
+                }
+                case GET_GLOBAL -> {
+                    push(globals.value(chunk.tokens[start], u16(code, ip)));
+                    ip += 2;
+                }
+                case SET_GLOBAL -> {
+                    globals.assign(chunk.tokens[start], u16(code, ip), stack[sp - 1]);
+                    stack[sp - 1] = null;
+                    ip += 2;
+                }
+                case DEFINE_GLOBAL -> {
+                    globals.define(u16(code, ip), stack[--sp]);
+                    ip += 2;
+                }
+                case ADD -> {
+                    var right = stack[--sp];
+                    stack[sp - 1] = add(chunk.tokens[start], stack[sp - 1], right);
+                }
+                case SUBTRACT -> {
+                    var op = chunk.tokens[start];
+                    var right = stack[--sp];
+                    stack[sp - 1] = number(op, stack[sp - 1]) - number(op, right);
+                }
+                case MULTIPLY -> {
+                    var op = chunk.tokens[start];
+                    var right = stack[--sp];
+                    stack[sp - 1] = number(op, stack[sp - 1]) * number(op, right);
+                }
+                case DIVIDE -> {
+                    var op = chunk.tokens[start];
+                    var right = stack[--sp];
+                    stack[sp - 1] = number(op, stack[sp - 1]) / number(op, right);
+                }
+                case GREATER -> {
+                    var op = chunk.tokens[start];
+                    var right = stack[--sp];
+                    stack[sp - 1] = number(op, stack[sp - 1]) > number(op, right);
+                }
+                case GREATER_EQUAL -> {
+                    var op = chunk.tokens[start];
+                    var right = stack[--sp];
+                    stack[sp - 1] = number(op, stack[sp - 1]) >= number(op, right);
+                }
+                case LESS -> {
+                    var op = chunk.tokens[start];
+                    var right = stack[--sp];
+                    stack[sp - 1] = number(op, stack[sp - 1]) < number(op, right);
+                }
+                case LESS_EQUAL -> {
+                    var op = chunk.tokens[start];
+                    var right = stack[--sp];
+                    stack[sp - 1] = number(op, stack[sp - 1]) <= number(op, right);
+                }
+                case EQUAL -> {
+                    var right = stack[--sp];
+                    stack[sp - 1] = Utils.isEqual(stack[sp - 1], right);
+                }
+                case NOT_EQUAL -> {
+                    var right = stack[--sp];
+                    stack[sp - 1] = !Utils.isEqual(stack[sp - 1], right);
+                }
+                case NEGATE -> stack[sp - 1] = -number(chunk.tokens[start], stack[sp - 1]);
+                case NOT -> stack[sp - 1] = !Utils.isTruly(stack[sp - 1]);
+
+                case PRINT -> out.println( stack[--sp] );
+                case JUMP -> ip += u16(code, ip) + 2;
+                case JUMP_IF_FALSE -> ip += Utils.isTruly(stack[sp - 1]) ? 2 : u16(code, ip) + 2;
+                case JUMP_IF_TRUE -> ip += Utils.isTruly(stack[sp - 1]) ? u16(code, ip) + 2 : 2;
+                case LOOP -> ip -= u16(code, ip) - 2;
+
+                case IS_CODE -> {
+                    push(stack[sp - 1] instanceof LoxMethod method
+                         && method.code() == chunk.constants[u16(code, ip)]);
+                    ip += 2;
+                }
+                case CHECK_CALL -> {
+                    checkCall(chunk.tokens[start], stack[sp - 1], u16(code, ip));
+                    ip += 2;
+                }
+                case CALL -> {
+                    var argc = u16(code, ip);
+                    ip += 2;
+
+                    var callee = stack[sp - argc - 1];
+                    if( callee instanceof VMFunction function ){
+                        frame.ip = ip;
+                        frame = pushFrame(function, argc, null, chunk.tokens[start]);
+                    } else if( callee instanceof LoxClass klass
+                               && klass.initializer() instanceof VMFunction init ){
+                        var instance = new LoxInstance(klass);
+                        frame.ip = ip;
+                        frame = pushFrame(init.bind(instance), argc, instance, chunk.tokens[start]);
+                    } else {
+                        // natives may call back into the VM
+                        frame.ip = ip;
+                        var result = callNative((LoxCallable) callee, argc);
+                        push(result);
+                        continue;
+                    }
+
+                    chunk = frame.chunk;
+                    code = chunk.code;
+                    ip = frame.ip;
+                    base = frame.base;
+                    captures = frame.captures;
+                }
+                case CLOSURE -> {
+                    var prototype = (Prototype) chunk.constants[u16(code, ip)];
+                    push(closure(prototype, base, captures, null));
+                    ip += 2;
+                }
+                case METHOD -> {
+                    var prototype = (Prototype) chunk.constants[u16(code, ip)];
+                    var superClass = stack[sp - 1 - u16(code, ip + 2)];
+                    push(closure(prototype, base, captures, superClass));
+                    ip += 4;
+                }
+                case RETURN -> {
+                    var result = stack[--sp];
+                    if( frame.instance != null )
+                        result = frame.instance;
+
+                    // drops the locals, the operands left and the callee
+                    Arrays.fill(stack, base - 1, sp, null);
+                    sp = base - 1;
+                    frame.instance = null;
+                    frame.captures = null;
+                    fp--;
+
+                    if( fp == exit )
+                        return result;
+
+                    push(result);
+                    frame = frames[fp - 1];
+                    chunk = frame.chunk;
+                    code = chunk.code;
+                    ip = frame.ip;
+                    base = frame.base;
+                    captures = frame.captures;
+                }
+
+                case CHECK_SUPER -> {
+                    if( !(stack[sp - 1] instanceof LoxClass) ){
+                        throw new LoxError(
+                                chunk.tokens[start], "Super class should be a class."
+                        );
+                    }
+                }
+                case CLASS -> {
+                    var name = (String) chunk.constants[u16(code, ip)];
+                    var count = u16(code, ip + 2);
+                    var hasSuper = code[ip + 4] != 0;
+                    ip += 5;
+
+                    var methods = new ArrayList<VMFunction>(count);
+                    for(var i = sp - count; i < sp; i++)
+                        methods.add((VMFunction) stack[i]);
+                    sp -= count;
+
+                    var parent = hasSuper ? (LoxClass) stack[--sp] : null;
+                    push(new LoxClass(name, parent, methods));
+                }
+                case CHECK_INSTANCE -> instance(chunk.tokens[start], stack[sp - 1]);
+                case GET_PROPERTY -> {
+                    var property = chunk.tokens[start];
+                    stack[sp - 1] = instance(property, stack[sp - 1]).get(property);
+                    ip += 2;
+                }
+                case SET_PROPERTY -> {
+                    var value = stack[--sp];
+                    var name = (String) chunk.constants[u16(code, ip)];
+                    ((LoxInstance) stack[sp - 1]).set(name, value);
+                    stack[sp - 1] = null;
+                    ip += 2;
+                }
+                case GET_SUPER -> {
+                    var name = (String) chunk.constants[u16(code, ip)];
+                    ip += 2;
+
+                    var instance = (LoxInstance) stack[--sp];
+                    stack[sp] = null;
+                    var superClass = (LoxClass) stack[sp - 1];
+                    stack[sp - 1] = superClass.findMethod(name).bind(instance);
+                }
+                default -> throw new IllegalStateException(
+                        "Unknown opcode " + code[start] + " at " + start + "."
+                );
+            }
+        }
+    }
+
+    // the arguments already are in the first slots of the new frame
+    private Frame pushFrame(VMFunction function, int argc, LoxInstance instance, Token token){
+        if( fp == maxDepth )
+            throw new LoxError(token, "Stack overflow.", stackTrace());
+
+        var prototype = function.prototype;
+        var base = sp - argc;
+
+        var code = prototype.code();
+        var cells = code == null ? null : code.cells;
+        if( cells != null ){
+            for(var i = 0; i < argc; i++)
+                if( cells[i] )
+                    stack[base + i] = new Cell(stack[base + i]);
+        }
+
+        var top = base + prototype.frameSize();
+        if( top >= stack.length )
+            stack = Arrays.copyOf(stack, Math.max(top + 1, stack.length * 2));
+        Arrays.fill(stack, sp, top, null);
+        sp = top;
+
+        if( fp == frames.length )
+            frames = Arrays.copyOf(frames, fp * 2);
+
+        var frame = frames[fp];
+        if( frame == null )
+            frame = frames[fp] = new Frame();
+
+        frame.prototype = prototype;
+        frame.chunk = prototype.chunk();
+        frame.ip = 0;
+        frame.base = base;
+        frame.captures = function.captures;
+        frame.instance = instance;
+
+        fp++;
+        return frame;
+    }
+
+    // The active calls, innermost first. Every frame below the
+    // top one is stopped right after the CALL that left it.
+    public List<String> stackTrace(){
+        var trace = new ArrayList<String>();
+        for(var i = fp - 1; i >= 0; i--){
+            if( trace.size() == TRACE_LIMIT ){
+                trace.add(String.format("... %d more", i + 1));
+                break;
+            }
+
+            var frame = frames[i];
+            var name = frame.prototype.name();
+            if( name == null )
+                name = i == 0 ? "<script>" : "<anonymous fn>";
+
+            var call = frame.chunk.tokens[frame.ip - 3];
+            trace.add(String.format("at %s, line %d", name, call.line()));
+        }
+        return trace;
+    }
+
+    // the free variables of a closure created by the frame at base,
+    // same as Interpreter.capture
+    private VMFunction closure(Prototype prototype, int base, Object[] captures, Object superClass){
+        var code = prototype.code().captures;
+        if( code.length == 0 )
+            return new VMFunction(this, prototype, null);
+
+        var values = new Object[ code.length ];
+        for(var i = 0; i < code.length; i++){
+            var capture = code[i];
+            values[i] = switch (capture.kind){
+                case LOCAL -> stack[ base + capture.index ];
+                case CAPTURE -> captures[ capture.index ];
+                case SUPER -> superClass;
+                // filled when the method is bound
+                case RECEIVER -> null;
+            };
+        }
+        return new VMFunction(this, prototype, values);
+    }
+
+    private Object callNative(LoxCallable callee, int argc){
+        var args = new ArrayList<>(argc);
+        for(var i = sp - argc; i < sp; i++)
+            args.add(stack[i]);
+
+        Arrays.fill(stack, sp - argc - 1, sp, null);
+        sp -= argc + 1;
+        return callee.call(args);
+    }
+
+    private void push(Object value){
+        if( sp == stack.length )
+            stack = Arrays.copyOf(stack, sp * 2);
+        stack[sp++] = value;
+    }
+
+    private static int u16(byte[] code, int offset){
+        return ((code[offset] & 0xFF) << 8) | (code[offset + 1] & 0xFF);
+    }
+
+    private static void checkCall(Token paren, Object callee, int argc){
+        if( !(callee instanceof LoxCallable function) ){
+            throw new LoxError(
+                    paren, "Can only call functions and classes constructors."
+            );
+        }
+
+        if( function.arity() != argc ){
+            throw new LoxError(
+                    paren, String.format(
+                            "Expected %d arguments but got %d.", function.arity(), argc
+                    )
+            );
+        }
+    }
+
+    private static Object add(Token op, Object left, Object right){
+        if( left instanceof Double leftNr && right instanceof Double rightNr )
+            return leftNr + rightNr;
+
+        if( Utils.isString(left) || Utils.isString(right) )
+            return Utils.concat(left, right);
+
+        throw new LoxError(op, String.format(
+                "Expected either number or at least one string operand but got: %s and %s",
+                Utils.stringify(left), Utils.stringify(right)
+        ));
+    }
+
+    private static double number(Token op, Object value){
+        if( value instanceof Double nr )
+            return nr;
+
+        throw new LoxError(
+                op, String.format("Expected a number but found: %s", Utils.stringify(value))
+        );
+    }
+
+    private static LoxInstance instance(Token property, Object value){
+        if( value instanceof LoxInstance instance )
+            return instance;
+
+        throw new LoxError(
+                property, String.format(
+                        "Can only get property from class instances not from '%s'.", value
+                )
+        );
+    }
+}
@@ -0,0 +1,63 @@
+package jh.craft.interpreter.vm;
+
+import jh.craft.interpreter.ast.Scope;
+import jh.craft.interpreter.core.LoxInstance;
+import jh.craft.interpreter.core.LoxMethod;
+
+import java.util.List;
+
+public class VMFunction implements LoxMethod {
+    private static final Object[] NO_CAPTURES = new Object[0];
+
+    final Prototype prototype;
+    // the free variables of the function, see Scope.captures
+    final Object[] captures;
+    private final VM vm;
+
+    VMFunction(VM vm, Prototype prototype, Object[] captures){
+        this.vm = vm;
+        this.prototype = prototype;
+        this.captures = captures == null ? NO_CAPTURES : captures;
+    }
+
+    @Override
+    public VMFunction bind(LoxInstance instance){
+        // a method not using 'this' is the same for every instance
+        var receiver = prototype.code().receiver;
+        if( receiver < 0 )
+            return this;
+
+        var bound = captures.clone();
+        bound[receiver] = instance;
+        return new VMFunction(vm, prototype, bound);
+    }
+
+    @Override
+    public String name(){
+        var name = prototype.name();
+        return name == null ? "" : name;
+    }
+
+    @Override
+    public Scope code(){
+        return prototype.code();
+    }
+
+    @Override
+    public int arity(){
+        return prototype.arity();
+    }
+
+    // only used when someone outside the VM calls us, calls
+    // made by Lox code never leave the VM dispatch loop.
+    @Override
+    public Object call(List<Object> arguments){
+        return vm.call(this, arguments);
+    }
+
+    @Override
+    public String toString(){
+        var name = prototype.name();
+        return name == null ? "<anonymous fn>" : "<fn " + name + ">";
+    }
+}
@@ -0,0 +1,54 @@
+package jh.craft.interpreter;
+
+import jh.craft.interpreter.scanner.Source;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Every engine, with the optimizer on and off, has to print
+// the same as the tree interpreter without the optimizer.
+// A runtime error ends a run, so scripts hold one program per
+// error, each one starting at a '// ---' line.
+class EngineEquivalenceTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "basics", "operators", "evaluation_order", "closures", "captures",
+            "counters", "classes", "strings", "hot", "hot_loops", "runtime_error"
+    })
+    void everyEngineMatchesTheTreeInterpreter(String name){
+        for( var source : LoxRun.script( name ).split( "(?m)^// ---$" ) ){
+            var expected = LoxRun.run( source, "tree", false );
+
+            for( var engine : LoxRun.ENGINES.keySet() ){
+                for( var optimize : new boolean[]{ false, true } ){
+                    assertEquals(
+                            expected, LoxRun.run( source, engine, optimize ),
+                            name + " on " + engine + " with the optimizer " + (optimize ? "on" : "off")
+                    );
+                }
+            }
+        }
+    }
+
+    @Test
+    void mappedFilesRunLikeStrings(@TempDir Path dir) throws IOException {
+        // non ASCII text is scanned as UTF-8 bytes from the mapped file
+        var source = "print \"h\u00e9llo w\u00f6rld \u2713\" + 1;\n" + LoxRun.script( "operators" );
+        var file = dir.resolve( "script.lox" );
+        Files.writeString( file, source, StandardCharsets.UTF_8 );
+
+        assertEquals(
+                LoxRun.run( source, "tree", false ),
+                LoxRun.run( Source.map( file ), "tree", null )
+        );
+    }
+}
@@ -0,0 +1,65 @@
+package jh.craft.interpreter;
+
+import jh.craft.interpreter.core.Interpreter;
+import jh.craft.interpreter.core.Lox;
+import jh.craft.interpreter.core.LoxEngine;
+import jh.craft.interpreter.exec.ClosureEngine;
+import jh.craft.interpreter.scanner.Source;
+import jh.craft.interpreter.types.LoxErrorReporter;
+import jh.craft.interpreter.utils.OutputBuffer;
+import jh.craft.interpreter.vm.VM;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+// Runs Lox code like Main does, but keeps everything it prints,
+// errors included, so runs can be compared.
+final class LoxRun {
+    // the engines of --engine, printing to the given buffer
+    static final Map<String, BiFunction<LoxErrorReporter, OutputBuffer, LoxEngine>> ENGINES = Map.of(
+            "tree", (reporter, out) -> new Interpreter(reporter, false, out),
+            "jit", (reporter, out) -> new Interpreter(reporter, true, out),
+            "closure", ClosureEngine::new,
+            "vm", (reporter, out) -> new VM(reporter, VM.DEFAULT_MAX_DEPTH, out)
+    );
+
+    private LoxRun(){}
+
+    static String run(String source, String engine, boolean optimize){
+        return run( Source.of( source ), engine, optimize ? note -> {} : null );
+    }
+
+    // optimizerNotes is null to turn the optimizer off, like --optimizer off
+    static String run(Source source, String engine, Consumer<String> optimizerNotes){
+        var bytes = new ByteArrayOutputStream();
+        var printed = new PrintStream( bytes, true, StandardCharsets.UTF_8 );
+        var out = new OutputBuffer( printed, false );
+
+        new Lox( error -> {
+            out.flush();
+            printed.printf( "Error: %s [line %d]\n", error.msg, error.line );
+            for( var call : error.trace )
+                printed.printf( "\t%s\n", call );
+        }, reporter -> ENGINES.get( engine ).apply( reporter, out ), optimizerNotes ).run( source );
+
+        out.flush();
+        return bytes.toString( StandardCharsets.UTF_8 );
+    }
+
+    // one of the scripts in resources/scripts
+    static String script(String name){
+        try( var in = LoxRun.class.getResourceAsStream( "/scripts/" + name + ".lox" ) ){
+            if( in == null )
+                throw new IllegalArgumentException( "No script named " + name );
+            return new String( in.readAllBytes(), StandardCharsets.UTF_8 );
+        }catch (IOException e){
+            throw new UncheckedIOException( e );
+        }
+    }
+}
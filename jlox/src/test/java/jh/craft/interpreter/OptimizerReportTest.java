@@ -0,0 +1,38 @@
+package jh.craft.interpreter;
+
+import jh.craft.interpreter.scanner.Source;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// What --optimizer report prints has to point at the statement
+// that changed, not at the one before it.
+class OptimizerReportTest {
+
+    @Test
+    void removedBranchesAndLoopsReportTheirOwnLine(){
+        // lines are counted from 0, like in the error messages
+        var source = String.join( "\n",
+                "var a = 1;",
+                "print a;",
+                "if (false) {",
+                "  print \"never\";",
+                "}",
+                "print a;",
+                "while (false) print \"never\";",
+                "print a;"
+        );
+
+        var notes = new ArrayList<String>();
+        var printed = LoxRun.run( Source.of( source ), "tree", notes::add );
+
+        assertEquals( "1\n1\n1\n", printed );
+        assertEquals( List.of(
+                "line 2: removed the branch an 'if' never takes",
+                "line 6: removed a loop that never runs"
+        ), notes );
+    }
+}
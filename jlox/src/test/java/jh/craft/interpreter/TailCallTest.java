@@ -0,0 +1,23 @@
+package jh.craft.interpreter;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Calls in tail position don't take stack on any engine, in the jit
+// too once the functions got compiled.
+class TailCallTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = { "tree", "jit", "closure", "vm" })
+    void deepTailRecursionDoesNotOverflow(String engine){
+        var source = LoxRun.script( "tail_calls" );
+        for( var optimize : new boolean[]{ false, true } ){
+            assertEquals(
+                    "200000\nfalse\n400000\n", LoxRun.run( source, engine, optimize ),
+                    engine + " with the optimizer " + (optimize ? "on" : "off")
+            );
+        }
+    }
+}